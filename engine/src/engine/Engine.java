@@ -0,0 +1,15 @@
+package engine;
+
+// One time setup of the global tables, every front end calls this before creating a Position
+public final class Engine {
+	private Engine() {}
+
+	public static void init(long zobristSeed) {
+		LegalityCheck.init();
+		MagicBitboards.initBishopLookups();
+		MagicBitboards.initRookLookups();
+		MagicBitboards.initPrecomputedLineBB();
+		MagicBitboards.initMagicMasks();
+		Position.initGlobalZobristKeys(zobristSeed); // Zobrist Keys are global across all threads
+	}
+}
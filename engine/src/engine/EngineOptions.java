@@ -0,0 +1,83 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Command line options every front end shares: threads, hash and its snapshot, zobrist seed
+// Parsed here so the headless entry point needs nothing outside this module
+public final class EngineOptions {
+	public int threads = 1;
+	public int hashMb = TT.DEFAULT_HASH_MB;
+	public boolean offHeapHash = false;
+	public boolean largePages = false;
+	public Path hashFile = null;
+	public long seed = Position.DEFAULT_ZOBRIST_SEED;
+
+	// true if arg was one of ours, front ends handle the rest themselves
+	public boolean parse(String arg) {
+		if (arg.startsWith("--threads=")) {
+			try { threads = Math.max(1, Integer.parseInt(arg.substring("--threads=".length()))); } catch (NumberFormatException ignored) {}
+		} else if (arg.startsWith("--hash=")) {
+			try { hashMb = Integer.parseInt(arg.substring("--hash=".length())); } catch (NumberFormatException ignored) {}
+		} else if (arg.equals("--hash-offheap")) {
+			offHeapHash = true;
+		} else if (arg.equals("--large-pages")) {
+			largePages = true;
+		} else if (arg.startsWith("--hash-file=")) {
+			hashFile = Paths.get(arg.substring("--hash-file=".length()));
+		} else if (arg.startsWith("--seed=")) {
+			try { seed = Long.parseLong(arg.substring("--seed=".length())); } catch (NumberFormatException ignored) {}
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	// Global tables, search threads and the hash, call once before the first Position is created
+	public void apply() {
+		Engine.init(seed);
+		Minimax.searchThreads = threads;
+		TT.setOffHeap(offHeapHash, largePages);
+		TT.resize(hashMb);
+
+		if (hashFile != null) {
+			loadHashSnapshot(hashFile);
+		}
+	}
+
+	public static void printUsage() {
+		System.out.println("  --threads=<n>       Search threads, 1 main + n-1 Lazy SMP helpers (default 1)");
+		System.out.println("  --hash=<MB>         Transposition table size, rounded down to a power of two (default " + TT.DEFAULT_HASH_MB + ")");
+		System.out.println("  --hash-offheap      Keep the hash in direct memory, raise -XX:MaxDirectMemorySize to fit it");
+		System.out.println("  --large-pages       Align the off-heap hash to 2 MB so the OS can use huge pages");
+		System.out.println("  --hash-file=<path>  Load the hash from this snapshot on start, save it on exit");
+		System.out.println("  --seed=<n>          Zobrist key seed, the default is fixed so runs repeat exactly");
+	}
+
+	// Warm start from the last run's TT, and write it back on the way out (GUI close, Ctrl+C, end of autoplay, UCI quit)
+	private static void loadHashSnapshot(Path file) {
+		if (Files.exists(file)) {
+			try {
+				long tLoad = System.nanoTime();
+				TT.load(file);
+				System.out.printf("Loaded hash snapshot %s (%.2f ms)%n", file, (System.nanoTime() - tLoad) / 1_000_000.0);
+			} catch (IOException e) {
+				// Saving over it on exit would replace a good snapshot (maybe just for another --seed) with this run's table
+				System.err.println("Warning: hash snapshot not loaded, starting with an empty table. It will not be overwritten on exit. " + e.getMessage());
+				return;
+			}
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				TT.save(file);
+				System.out.println("Saved hash snapshot " + file);
+			} catch (IOException e) {
+				System.err.println("Warning: could not save hash snapshot: " + e.getMessage());
+			}
+		}, "hash-snapshot-save"));
+	}
+}
@@ -1,7 +1,5 @@
 package engine;
 
-import debug.DebugRender;
-
 public class EvaluateBoard {
 	public static final int[] valueMap = {
 		0, // No Piece
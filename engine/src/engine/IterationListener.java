@@ -0,0 +1,7 @@
+package engine;
+
+// Told about every finished iteration of the main search thread, nodes include the Lazy SMP helpers
+@FunctionalInterface
+public interface IterationListener {
+	void iterationDone(int depth, int score, long nodes, long elapsedMs, int[] pv);
+}
@@ -2,7 +2,6 @@ package engine;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.stream.IntStream;
-import debug.DebugRender;
 public class LegalityCheck {	
 	private static boolean withinBounds(int row, int col, int rangeMin, int rangeMax) {
 		if (row < rangeMin || row > rangeMax) return false;
@@ -59,7 +58,8 @@ public class LegalityCheck {
 		long opponentRayPieces = (chessPosition.bitboards[3 + accessColor] | chessPosition.bitboards[4 + accessColor] | chessPosition.bitboards[5 + accessColor]) & MagicBitboards.queenMasks[myKingPos];
 		long allPinsMask = 0L;
 		
-		for (int square : MagicBitboards.getSetBits(opponentRayPieces)) {
+		for (long squareBits = opponentRayPieces; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			byte type = (byte)(chessPosition.engineLookup[square] > 6 ? chessPosition.engineLookup[square] - 6 : chessPosition.engineLookup[square]);
 			if ((type == 3 && (((MagicBitboards.bishopAttackMasks[square] & (1L << myKingPos)) == 0)) || (type == 4 && ((MagicBitboards.rookAttackMasks[square] & (1L << myKingPos)) == 0)))) continue;
 			long ray = MagicBitboards.lineBB((byte)square, myKingPos) & chessPosition.allOccupied;
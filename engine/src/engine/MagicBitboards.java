@@ -10,7 +10,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.io.*;
 import java.util.*;
-import debug.DebugRender;
 public class MagicBitboards {
 	public static long[] rookMagics = {
 	    0x8A80104000800020L, 0x40004010002000L, 0x220008b200208040L, 0xc1001000a0884500L,
@@ -728,5 +727,14 @@ public class MagicBitboards {
 	public static long specialLineBB(byte squareStart, byte squareEnd) {
 		return specialLines[squareStart][squareEnd];
 	}
+	
+	// Slider attacks from square for an arbitrary occupancy, e.g. one with pieces already traded off the board
+	public static long bishopAttacks(int square, long occupied) {
+		return bishopBitTableLookup[square][(int)(((bishopMasks[square] & occupied) * bishopMagics[square]) >>> bishopShifts[square])];
+	}
+	
+	public static long rookAttacks(int square, long occupied) {
+		return rookBitTableLookup[square][(int)(((rookMasks[square] & occupied) * rookMagics[square]) >>> rookShifts[square])];
+	}
 }
 
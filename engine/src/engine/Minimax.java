@@ -0,0 +1,516 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntUnaryOperator;
+
+public class Minimax {
+	public static final byte FLAG_EXACT = 0; // No cutoffs were performed
+	public static final byte FLAG_LOWERBOUND = 1; // (beta cutoff), cache value must be >= beta
+	public static final byte FLAG_UPPERBOUND = 2; // (alpha cutoff), cache value must be <= alpha
+	public static final byte FLAG_TIMEOUT = 3; // Used if the search timed out
+	
+	public static final int MATE_SCORE = 999_999;
+	public static final int DRAW_SCORE = 0;
+	
+	public static final int MAX_QUIESCENCE_PLY = 10;
+	
+	public static volatile int searchThreads = 1; // Main thread + (searchThreads - 1) Lazy SMP helpers
+	
+	// Both can be switched off to compare time to depth
+	public static volatile boolean usePVS = true; // Null window searches for every move after the first, re-searched on a fail high
+	public static volatile boolean useAspiration = true; // Iterations start with a window around the last score
+	private static final int ASPIRATION_WINDOW = 50;
+	
+	private static final int[] valueMap = EvaluateBoard.valueMap;
+	
+	public static int getComputerMove(SearchContext ctx, int minDepth, int maxMs) {
+		return getComputerMove(ctx, minDepth, TimeManager.fixed(maxMs));
+	}
+	
+	public static int getComputerMove(SearchContext ctx, int minDepth, TimeManager timeManager) {
+		long startTime = System.nanoTime();
+		
+		int move = iterativeDeepening(ctx, minDepth, timeManager);
+		
+		long endTime = System.nanoTime();
+		int millisecondsEllapsed = (int)((endTime - startTime) / 1_000_000);
+		
+		long nps = ctx.totalNodes * 1_000_000_000L / Math.max(1, endTime - startTime);
+		
+		System.out.println("Took: " + (millisecondsEllapsed) + " milliseconds to compute move");
+		System.out.println("Nodes: " + ctx.totalNodes + ", NPS: " + nps + ", Threads: " + Math.max(1, searchThreads) + ", Hashfull: " + TT.hashfull());
+		
+		return move;
+	}
+	
+	private static final int INFINITY = 2_000_000;
+	
+	// minDepth takes priority, past it no iteration starts after the soft limit and the running one is aborted at the hard limit
+	private static int iterativeDeepening(SearchContext ctx, int minDepth, TimeManager timeManager) {
+		Position position = ctx.position;
+		long startTime = System.nanoTime();
+		ctx.nodes = 0;
+		TT.nextRootSearch(); // One age per search, entries from earlier moves become the first to be replaced
+		
+		// Lazy SMP, helpers share nothing with us except the TT
+		int helperCount = Math.max(1, searchThreads) - 1;
+		SearchContext[] helpers = new SearchContext[helperCount];
+		Thread[] helperThreads = new Thread[helperCount];
+		
+		for (int i = 0; i < helperCount; i++) {
+			SearchContext helper = new SearchContext(position.clonePosition());
+			int helperIndex = i;
+			
+			helpers[i] = helper;
+			helperThreads[i] = new Thread(() -> helperSearch(helper, helperIndex), "smp-helper-" + i);
+			helperThreads[i].setDaemon(true);
+			helperThreads[i].start();
+		}
+		
+		int previousBestMove = -1;
+		int previousScore = 0;
+		for (byte currentDepth = 0; currentDepth >= 0 && !ctx.abort; currentDepth++) {
+			if (currentDepth > minDepth && timeManager.softLimitReached()) {
+				break;
+			}
+			
+			ctx.timeManager = currentDepth > minDepth ? timeManager : null;
+			ctx.ageHistory();
+			
+			int negascore = aspirationSearch(ctx, currentDepth, previousScore);
+			
+			if (ctx.abort) {
+				// Every root move finished before the abort was searched deeper than the last iteration, so the best of them wins
+				if (ctx.pvLength[0] > 0) {
+					previousBestMove = ctx.pvTable[0][0];
+					ctx.savePv();
+					System.out.println("(" + ((System.nanoTime() - startTime) / 1_000_000) + " ms)" + "Move at depth " + currentDepth + " (timeout): " + Position.logMove(previousBestMove) + " pv " + pvString(ctx.previousPv, ctx.previousPvLength));
+					
+					TT.set(position.zobristHash, currentDepth, negascore, previousBestMove, FLAG_TIMEOUT, true); // Ordering only, the score is never trusted
+				}
+				
+				break;
+			}
+			
+			previousScore = negascore;
+			
+			long bestMoveInfo = TT.probe(position.zobristHash, -INFINITY, INFINITY, currentDepth, currentDepth);
+			
+			int newMove = -1;
+			int score = negascore;
+			
+			if (bestMoveInfo != TT.NO_ENTRY) {
+				newMove = TT.probedMove(bestMoveInfo);
+				score = TT.probedScore(bestMoveInfo);
+			}
+			
+			if (ctx.savePv() > 0) {
+				newMove = ctx.previousPv[0]; // The PV is exact, a TT entry could have been replaced under us
+			}
+			
+			previousBestMove = newMove;
+			long elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+			
+			if (ctx.iterationListener != null) {
+				long nodes = ctx.nodes;
+				for (int i = 0; i < helperCount; i++) {
+					nodes += helpers[i].nodes;
+				}
+				
+				ctx.iterationListener.iterationDone(currentDepth, score, nodes, elapsedMs, ctx.getPrincipalVariation());
+			} else {
+				System.out.println("(" + elapsedMs + " ms)" + "Move at depth " + currentDepth + ": " + Position.logMove(previousBestMove) + ": " + score + " pv " + pvString(ctx.previousPv, ctx.previousPvLength));
+			}
+			
+			TT.set(position.zobristHash, currentDepth, negascore, newMove, FLAG_EXACT, true);
+			if (currentDepth > 50) break;
+		}
+		
+		long totalNodes = ctx.nodes;
+		for (int i = 0; i < helperCount; i++) {
+			helpers[i].abort = true;
+		}
+		
+		for (int i = 0; i < helperCount; i++) {
+			try {
+				helperThreads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			
+			totalNodes += helpers[i].nodes;
+		}
+		
+		if (previousBestMove == -1 || previousBestMove == 0) {
+			previousBestMove = fallbackMove(position); // Stopped before any iteration finished, still answer with a legal move
+		}
+		
+		ctx.timeManager = null;
+		ctx.abort = false; // Reusable from here on, cleared at the end so a stop() that beats the search thread to the start still counts
+		ctx.totalNodes = totalNodes;
+		return previousBestMove;
+	}
+	
+	// The hash move if it is legal here, else the first generated move, -1 only if there is no legal move at all
+	private static int fallbackMove(Position position) {
+		int[] legalMoves = position.getAllLegalMoves(position.sideToMove);
+		if (legalMoves.length == 0) return -1;
+		
+		int promotionPiece = (position.sideToMove == 0 ? 5 : 11) << 22;
+		int hashMove = TT.probeMove(position.zobristHash);
+		int move = legalMoves[0];
+		
+		for (int legal : legalMoves) {
+			if (hashMove != 0 && hashMove != -1 && legal == (hashMove & ~(0xF << 22))) {
+				move = legal;
+				break;
+			}
+		}
+		
+		return ((move >>> 27) & 1) != 0 ? move | promotionPiece : move;
+	}
+	
+	private static String pvString(int[] line, int length) {
+		StringBuilder pv = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			if (i > 0) pv.append(' ');
+			pv.append(Position.toLongAlgebraic(line[i]));
+		}
+		
+		return pv.toString();
+	}
+	
+	// Searches a small window around the last iteration's score, widening the side that failed until the score lands inside
+	private static int aspirationSearch(SearchContext ctx, byte depth, int previousScore) {
+		if (!useAspiration || depth < 4 || Math.abs(previousScore) >= MATE_SCORE - SearchContext.MAX_PLY) {
+			ctx.followPv = true;
+			return negamax(ctx, depth, -INFINITY, INFINITY, 0);
+		}
+		
+		int delta = ASPIRATION_WINDOW;
+		int alpha = previousScore - delta;
+		int beta = previousScore + delta;
+		
+		while (true) {
+			ctx.followPv = true;
+			int score = negamax(ctx, depth, alpha, beta, 0);
+			if (ctx.abort) return score;
+			
+			if (score <= alpha) {
+				alpha = Math.max(-INFINITY, score - delta);
+			} else if (score >= beta) {
+				beta = Math.min(INFINITY, score + delta);
+			} else {
+				return score;
+			}
+			
+			delta *= 2;
+			if (delta > 1_000) { // Unstable score, stop guessing
+				alpha = -INFINITY;
+				beta = INFINITY;
+			}
+		}
+	}
+	
+	// Helpers run the same iterative deepening on their own clone, odd helpers start one ply deeper
+	// so the threads spread over different depths and fill the shared TT ahead of the main thread
+	private static void helperSearch(SearchContext ctx, int helperIndex) {
+		for (byte currentDepth = (byte)(1 + (helperIndex & 1)); currentDepth <= 50 && !ctx.abort; currentDepth++) {
+			ctx.ageHistory();
+			ctx.followPv = true;
+			negamax(ctx, currentDepth, -INFINITY, INFINITY, 0);
+			if (!ctx.abort) ctx.savePv();
+		}
+	}
+	
+	private static boolean isThreefoldRepetition(Position position) {
+		int count = 0;
+		for (int i = 0; i < position.historyPly; i++) {
+			if (position.repetitionHistory[i] == position.zobristHash) {
+				count++;
+			}
+			
+			if (count >= 3) return true;
+		}
+		return false;
+	}
+	
+	private final static int DELTA_PRUNING_MARGIN = 200;
+	public static int quiescence(SearchContext ctx, int alpha, int beta, int ply, int localPly) {
+		Position position = ctx.position;
+		byte sideToMove = position.sideToMove;
+		ctx.nodes++;
+		ctx.checkTime();
+		
+		if (ctx.abort) return 0;
+		int standPat = position.getEval(sideToMove);
+		
+		if (localPly >= 10) {
+			return position.getEval(sideToMove);
+		}
+		
+		if (standPat >= beta) {
+			return beta;
+		} else if (standPat > alpha) {
+			alpha = standPat;
+		}
+		
+		boolean inCheck = position.isInCheck(sideToMove);
+		int[] moves = ctx.moveBuffers[ply];
+		int moveCount = inCheck ? position.getAllLegalMoves(sideToMove, moves) :
+			position.getCapturesChecksPromotions(sideToMove, moves);
+		
+		if (moveCount == 0) {
+			if (inCheck) {
+				return -MATE_SCORE + ply;
+			} else {
+				return standPat;
+			}
+		}
+		
+		int[] scores = ctx.moveScores[ply];
+		for (int i = 0; i < moveCount; i++) {
+			scores[i] = MovePicker.mvvLva(moves[i]); // Checks and quiet promotions have no victim and go last
+		}
+		
+		int bestScore = inCheck ? -INFINITY : standPat; // Standing pat is always an option unless in check, even if every capture gets pruned
+		for (int i = 0; i < moveCount; i++) {
+			MovePicker.pickBest(moves, scores, i, moveCount);
+			
+			int move = moves[i];
+			byte promotionFlag = (byte)((move >>> 27) & 1);
+			byte captureType = (byte)((move >>> 16) & 0xF);
+			
+			if (promotionFlag == 0 && captureType != 0 && !inCheck && standPat + valueMap[captureType] + DELTA_PRUNING_MARGIN < alpha) {
+				continue;
+			}
+			
+			if (promotionFlag == 0 && captureType != 0 && !inCheck && MovePicker.isLosingCapture(position, move)) {
+				continue; // Loses material once the recaptures are played out
+			}
+			
+			if (promotionFlag != 0) move |= (sideToMove == 0 ? 5 : 11) << 22;
+			
+			position.makeMove(move, true);
+			int eval = -quiescence(ctx, -beta, -alpha, ply + 1, localPly + 1);
+			position.unmakeMove(move);
+			
+			if (eval > bestScore) {
+				bestScore = eval;
+				alpha = Math.max(eval, alpha);
+			}
+			
+			if (alpha >= beta) {
+				break;
+			}
+		}
+
+		return bestScore;
+	}
+	
+	// ALPHA - Lowerbound, Best Score we've found so far so any new score needs to be higher
+	// BETA - Upperbound, Since the opponent wants to minimize, this is the lowest score the opponent found
+	// They wont allow us to play it since its too good, needs to be lower than upperbound
+	// Score: alpha <= real_score <= beta, if alpha >= beta bounds collapse so prune, wont go down the route
+	public static int negamax(SearchContext ctx, byte depth, int alpha, int beta, int ply) {
+		Position position = ctx.position;
+		byte sideToMove = position.sideToMove;
+		ctx.nodes++;
+		ctx.checkTime();
+		
+		boolean onPv = ctx.followPv; // Every move so far matches the last iteration's PV
+		ctx.followPv = false;
+		boolean afterNullMove = ctx.afterNullMove; // moveHistory has no entry for the null move, its top is our own earlier move
+		ctx.afterNullMove = false;
+		ctx.pvLength[ply] = ply;
+		
+		if (ctx.abort) return 0;
+		int bestEval = -INFINITY;
+		int bestMove = -1;
+		
+		// No cutoffs at the root or in PV nodes, they would return without a line and cut the PV short
+		boolean pvNode = beta - alpha > 1;
+		if (ply > 0 && !pvNode) {
+			long knownScore = TT.probe(position.zobristHash, alpha, beta, depth, ply);
+			if (knownScore != TT.NO_ENTRY) {
+				return TT.probedScore(knownScore);
+			}
+		}
+		
+		if (ply > 0 && isThreefoldRepetition(position)) { // The root always needs a move, even in a repeated position
+			return 0;
+		}
+		
+		boolean inCheck = position.isInCheck(sideToMove);
+		if (depth <= 0) {
+			// Quiescence stands pat before it looks at any move, so mate and stalemate at the horizon are scored here
+			if (!position.hasLegalMove(sideToMove, ctx.moveBuffers[ply])) return inCheck ? -MATE_SCORE + ply : 0;
+			
+			return quiescence(ctx, alpha, beta, ply, 0);
+		}
+		
+		int R = 2;
+		if (ply > 0 && depth > R + 1 && !inCheck && position.phase >= 7) {
+			position.toggleNullMove();
+			ctx.afterNullMove = true;
+			int score = -negamax(ctx, (byte)(depth - 1 - R), -beta, -alpha, ply + 1);
+			position.toggleNullMove();
+			
+			if (score >= beta) {
+				return beta;
+			}
+		}
+		
+		int pvMove = onPv && ply < ctx.previousPvLength ? ctx.previousPv[ply] : 0;
+		int ttMove = pvMove != 0 ? pvMove : TT.probeMove(position.zobristHash);
+		int previousMove = !afterNullMove && position.currentMoveCount > 0 ? position.moveHistory[position.currentMoveCount - 1] : 0;
+		
+		MovePicker picker = ctx.movePickers[ply];
+		picker.init(ttMove, previousMove);
+		
+		int originalAlpha = alpha;
+		byte index = 0;
+		int quietCount = 0;
+		int[] quietsSearched = ctx.quietsSearched[ply];
+		int move;
+		while ((move = picker.next()) != 0) {
+			byte promotionFlag = (byte)((move >>> 27) & 1);
+			if (promotionFlag != 0) move |= (sideToMove == 0 ? 5 : 11) << 22;
+			
+			boolean isQuiet = ((move >>> 16) & 0xF) == 0 && promotionFlag == 0;
+			if (isQuiet) quietsSearched[quietCount++] = move;
+			
+			int score;
+			position.makeMove(move, true);
+			ctx.followPv = pvMove != 0 && move == pvMove; // Only the first search of the PV move, re-searches start from the TT again
+			
+			boolean lateMove = index >= 5 && depth >= 3 && picker.quietsGenerated() && isQuiet && !inCheck;
+			int reduce = lateMove ? (picker.generatedCount() > 7 ? 2 : 1) : 0;
+			
+			if (index == 0) {
+				score = -negamax(ctx, (byte)(depth - 1), -beta, -alpha, ply + 1); // Swap & Negate since the bounds flip and score perspective flips
+			} else if (usePVS) {
+				// Only needs to prove the move is no better than alpha, the full window is only paid for when it is
+				score = -negamax(ctx, (byte)(depth - 1 - reduce), -alpha - 1, -alpha, ply + 1);
+				
+				if (score > alpha && reduce > 0) {
+					score = -negamax(ctx, (byte)(depth - 1), -alpha - 1, -alpha, ply + 1);
+				}
+				
+				if (score > alpha && score < beta) {
+					score = -negamax(ctx, (byte)(depth - 1), -beta, -alpha, ply + 1);
+				}
+			} else {
+				score = -negamax(ctx, (byte)(depth - 1 - reduce), -beta, -alpha, ply + 1);
+				
+				if (score > alpha && reduce > 0) {
+					score = -negamax(ctx, (byte)(depth - 1), -beta, -alpha, ply + 1);
+				}
+			}
+			
+			position.unmakeMove(move);
+			if (ctx.abort) return 0; // The score of an unfinished subtree must not reach the PV
+			
+			if (score > bestEval) {
+				bestEval = score;
+				bestMove = move;
+				
+				if (score > alpha) {
+					alpha = score;
+					ctx.updatePv(ply, move);
+				}
+			}
+			
+			if (alpha >= beta) {
+				if (isQuiet) {
+					if (ctx.killerMoves[ply][0] != move) {
+						ctx.killerMoves[ply][1] = ctx.killerMoves[ply][0];
+						ctx.killerMoves[ply][0] = move;
+					}
+					
+					// The cutoff move gains history, the quiets tried before it that failed lose some
+					int bonus = depth * depth;
+					int[][] history = ctx.historyHeuristic[sideToMove];
+					for (int i = 0; i < quietCount - 1; i++) {
+						SearchContext.updateHistory(history, quietsSearched[i], -bonus);
+					}
+					SearchContext.updateHistory(history, move, bonus);
+					
+					if (previousMove != 0) {
+						ctx.counterHeuristic[previousMove & 0x3F][(previousMove >>> 6) & 0x3F] = move;
+					}
+				}
+				
+				break;
+			}
+			
+			index++;
+		}
+		
+		if (bestMove == -1 && !ctx.abort) { // No legal moves
+			return inCheck ? -MATE_SCORE + ply : 0;
+		}
+		
+		byte flag = FLAG_EXACT;
+		if (bestEval <= originalAlpha) {
+			flag = FLAG_UPPERBOUND;
+		} else if (bestEval >= beta) {
+			flag = FLAG_LOWERBOUND;
+		}
+		
+		if (ctx.abort) return 0; // Unfinished subtree, keep it out of the TT
+		
+		TT.set(position.zobristHash, depth, bestEval, bestMove, flag, false);
+		return bestEval;
+	}
+	
+	public static long[] runPerft(Position position, int depth, int ply, boolean isWhite, int previousMove) {
+		if (depth == 0) {
+			byte targetKey = (byte)((previousMove >>> 16) & 0xF);
+			
+			boolean isCapture = targetKey != 0;
+			boolean isEnPassant = ((byte)(previousMove >>> 29) & 1L) != 0;
+			boolean isCastle = ((byte)(previousMove >>> 28) & 1L) != 0;
+			byte promotionKey = (byte)((previousMove >>> 22) & 0xF);
+			boolean isPromotion = promotionKey != 0;
+			
+			// previousMove is already on the board, so it gave check if the side to move is attacked
+			byte sideToMove = position.sideToMove;
+			boolean isCheck = position.isInCheck(sideToMove);
+			
+			return new long[] {1, isCapture ? 1 : 0, isEnPassant ? 1 : 0, isCastle ? 1 : 0, isPromotion ? 1 : 0, isCheck ? 1 : 0};
+		}
+		
+		int[] moves = isWhite ? position.getAllLegalMoves((byte)0) : position.getAllLegalMoves((byte)1);
+		byte[] promotions = isWhite ? Position.whitePromotions : Position.blackPromotions;
+		
+		// Captures, Enpassants, Castles, Promotions, Checks
+		long[] totalMoveCount = {0, 0, 0, 0, 0, 0};
+		for (int move : moves) {
+			boolean isPromotion = ((move >>> 27) & 1) != 0;
+			
+			// Generated promotions carry no piece yet, each choice is its own move
+			for (int p = 0; p < (isPromotion ? promotions.length : 1); p++) {
+				int fullMove = isPromotion ? move | (promotions[p] << 22) : move;
+				
+				position.makeMove(fullMove, true);
+				long[] count = runPerft(position, depth - 1, ply + 1, !isWhite, fullMove);
+				position.unmakeMove(fullMove);
+				
+				for (int i = 0; i < totalMoveCount.length; i++) {
+					totalMoveCount[i] += count[i];
+				}
+			}
+		}
+		
+		return totalMoveCount;
+	}
+}
+
+
@@ -1,6 +1,5 @@
 package engine;
 import java.util.HashMap;
-import debug.DebugRender;
 import java.util.ArrayList;
 import java.util.Arrays;
 public class MoveGen {
@@ -0,0 +1,215 @@
+package engine;
+
+// Staged move picker for negamax, every stage is only generated once the previous one is used up
+// TT move -> winning captures -> killers -> counter move -> quiets by history -> losing captures
+// One instance per ply, it works inside the ply's move and score buffers of its SearchContext
+final class MovePicker {
+	private static final byte STAGE_TT = 0;
+	private static final byte STAGE_GENERATE_CAPTURES = 1;
+	private static final byte STAGE_GOOD_CAPTURES = 2;
+	private static final byte STAGE_KILLER_1 = 3;
+	private static final byte STAGE_KILLER_2 = 4;
+	private static final byte STAGE_COUNTER = 5;
+	private static final byte STAGE_GENERATE_QUIETS = 6;
+	private static final byte STAGE_QUIETS = 7;
+	private static final byte STAGE_BAD_CAPTURES = 8;
+	private static final byte STAGE_DONE = 9;
+
+	private static final int GOOD_CAPTURE = 10_000; // Capture scores at or above this are searched before the quiets
+	private static final int QUIET_PROMOTION = 1 << 24; // Quiet promotions go ahead of every other quiet
+	private static final int PROMOTION_BITS = 0xF << 22;
+
+	private final SearchContext ctx;
+	private final int ply;
+	private final int[] moves;
+	private final int[] scores;
+	private final int[] probe = new int[32]; // Scratch space to check that a stored move is still legal here
+
+	private Position position;
+	private byte color;
+	private byte stage;
+	private int ttMove;
+	private int killer1;
+	private int killer2;
+	private int counterMove;
+
+	private int index;
+	private int captureEnd;
+	private int badCaptureStart;
+	private int end;
+
+	MovePicker(SearchContext ctx, int ply) {
+		this.ctx = ctx;
+		this.ply = ply;
+		this.moves = ctx.moveBuffers[ply];
+		this.scores = ctx.moveScores[ply];
+	}
+
+	// previousMove is the move that led here (0 after a null move or at the root), it selects the counter move
+	void init(int ttMove, int previousMove) {
+		position = ctx.position;
+		color = position.sideToMove;
+		stage = STAGE_TT;
+
+		this.ttMove = isLegal(ttMove) ? ttMove & ~PROMOTION_BITS : 0;
+		killer1 = ctx.killerMoves[ply][0] & ~PROMOTION_BITS;
+		killer2 = ctx.killerMoves[ply][1] & ~PROMOTION_BITS;
+		counterMove = previousMove != 0 ? ctx.counterHeuristic[previousMove & 0x3F][(previousMove >>> 6) & 0x3F] & ~PROMOTION_BITS : 0;
+
+		index = 0;
+		captureEnd = 0;
+		badCaptureStart = 0;
+		end = 0;
+	}
+
+	// Number of legal moves in the position, only complete once the quiets have been generated
+	int generatedCount() {
+		return end;
+	}
+
+	boolean quietsGenerated() {
+		return stage > STAGE_GENERATE_QUIETS;
+	}
+
+	// Next move to search with the promotion piece still unset, 0 once every legal move has been returned
+	@SuppressWarnings("fallthrough")
+	int next() {
+		switch (stage) {
+		case STAGE_TT:
+			stage = STAGE_GENERATE_CAPTURES;
+			if (ttMove != 0) return ttMove;
+			// fall through
+		case STAGE_GENERATE_CAPTURES:
+			long opponentOccupied = color == 0 ? position.blackOccupied : position.whiteOccupied;
+			captureEnd = position.getLegalMoves(color, moves, 0, ~0L, opponentOccupied);
+			end = captureEnd;
+
+			for (int i = 0; i < captureEnd; i++) {
+				scores[i] = captureScore(moves[i]);
+			}
+
+			index = 0;
+			stage = STAGE_GOOD_CAPTURES;
+			// fall through
+		case STAGE_GOOD_CAPTURES:
+			while (index < captureEnd) {
+				pickBest(moves, scores, index, captureEnd);
+				if (scores[index] < GOOD_CAPTURE) break; // Only losing captures left, they wait for the quiets
+
+				int move = moves[index++];
+				if (move != ttMove) return move;
+			}
+
+			badCaptureStart = index;
+			stage = STAGE_KILLER_1;
+			// fall through
+		case STAGE_KILLER_1:
+			stage = STAGE_KILLER_2;
+			if (isQuietCandidate(killer1)) return killer1;
+			// fall through
+		case STAGE_KILLER_2:
+			stage = STAGE_COUNTER;
+			if (killer2 != killer1 && isQuietCandidate(killer2)) return killer2;
+			// fall through
+		case STAGE_COUNTER:
+			stage = STAGE_GENERATE_QUIETS;
+			if (counterMove != killer1 && counterMove != killer2 && isQuietCandidate(counterMove)) return counterMove;
+			// fall through
+		case STAGE_GENERATE_QUIETS:
+			long emptySquares = ~position.allOccupied;
+			end = position.getLegalMoves(color, moves, captureEnd, ~0L, emptySquares);
+
+			int[][] history = ctx.historyHeuristic[color];
+			for (int i = captureEnd; i < end; i++) {
+				int move = moves[i];
+				scores[i] = history[move & 0x3F][(move >>> 6) & 0x3F] + (((move >>> 27) & 1) != 0 ? QUIET_PROMOTION : 0);
+			}
+
+			index = captureEnd;
+			stage = STAGE_QUIETS;
+			// fall through
+		case STAGE_QUIETS:
+			while (index < end) {
+				pickBest(moves, scores, index, end);
+
+				int move = moves[index++];
+				if (move != ttMove && move != killer1 && move != killer2 && move != counterMove) return move;
+			}
+
+			index = badCaptureStart;
+			stage = STAGE_BAD_CAPTURES;
+			// fall through
+		case STAGE_BAD_CAPTURES:
+			while (index < captureEnd) {
+				pickBest(moves, scores, index, captureEnd);
+
+				int move = moves[index++];
+				if (move != ttMove) return move;
+			}
+
+			stage = STAGE_DONE;
+			// fall through
+		default:
+			return 0;
+		}
+	}
+
+	// Winning and even captures by MVV-LVA, then the ones static exchange says lose material
+	private int captureScore(int move) {
+		return isLosingCapture(position, move) ? mvvLva(move) - GOOD_CAPTURE : GOOD_CAPTURE + mvvLva(move);
+	}
+
+	// The most valuable victim first and the cheapest attacker among equal victims
+	static int mvvLva(int move) {
+		byte captureType = (byte)((move >>> 16) & 0xF);
+		byte fromType = (byte)((move >>> 12) & 0xF);
+
+		return EvaluateBoard.valueMap[captureType] * 10 - EvaluateBoard.valueMap[fromType];
+	}
+
+	// Taking something worth at least the attacker can't lose material, only the rest needs the full exchange
+	static boolean isLosingCapture(Position position, int move) {
+		byte captureType = (byte)((move >>> 16) & 0xF);
+		byte fromType = (byte)((move >>> 12) & 0xF);
+
+		return EvaluateBoard.valueMap[captureType] < EvaluateBoard.valueMap[fromType] && position.see(move) < 0;
+	}
+
+	// Selection step, only the part of the list that actually gets searched is ever ordered
+	static void pickBest(int[] moves, int[] scores, int from, int to) {
+		int best = from;
+		for (int i = from + 1; i < to; i++) {
+			if (scores[i] > scores[best]) best = i;
+		}
+
+		if (best != from) {
+			int move = moves[from];
+			moves[from] = moves[best];
+			moves[best] = move;
+
+			int score = scores[from];
+			scores[from] = scores[best];
+			scores[best] = score;
+		}
+	}
+
+	// Killers and counter moves come from other positions, so they are only tried if they are still legal quiets here
+	private boolean isQuietCandidate(int move) {
+		return move != 0 && move != ttMove && ((move >>> 16) & 0xF) == 0 && isLegal(move);
+	}
+
+	private boolean isLegal(int move) {
+		if (move == 0 || ((move >>> 31) & 1) != color) return false;
+
+		int stripped = move & ~PROMOTION_BITS;
+		int from = stripped & 0x3F;
+		int to = (stripped >>> 6) & 0x3F;
+		int count = position.getLegalMoves(color, probe, 0, 1L << from, 1L << to);
+
+		for (int i = 0; i < count; i++) {
+			if (probe[i] == stripped) return true;
+		}
+
+		return false;
+	}
+}
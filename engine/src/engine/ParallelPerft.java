@@ -0,0 +1,81 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Perft split at the root, every root move (each promotion choice on its own) is counted on a clone of the root
+// Counts are nodes, captures, en passants, castles, promotions and checks, the same order as Minimax.runPerft
+public final class ParallelPerft {
+	public final int depth;
+	public final int[] rootMoves;
+	public final long[][] divide; // divide[i] counts the leaves below rootMoves[i]
+	public final long[] total;
+	public final long elapsedNanos;
+
+	private ParallelPerft(int depth, int[] rootMoves, long[][] divide, long elapsedNanos) {
+		this.depth = depth;
+		this.rootMoves = rootMoves;
+		this.divide = divide;
+		this.elapsedNanos = elapsedNanos;
+
+		total = new long[6];
+		for (long[] counts : divide) {
+			for (int i = 0; i < total.length; i++) {
+				total[i] += counts[i];
+			}
+		}
+	}
+
+	// depth >= 1, root is only cloned and never moved, so it can be the GUI position
+	public static ParallelPerft run(Position root, int depth, int threads) {
+		long start = System.nanoTime();
+		byte color = root.sideToMove;
+		byte[] promotions = color == 0 ? Position.whitePromotions : Position.blackPromotions;
+
+		List<Integer> fullMoves = new ArrayList<>();
+		for (int move : root.clonePosition().getAllLegalMoves(color)) {
+			boolean isPromotion = ((move >>> 27) & 1) != 0;
+
+			for (int p = 0; p < (isPromotion ? promotions.length : 1); p++) {
+				fullMoves.add(isPromotion ? move | (promotions[p] << 22) : move);
+			}
+		}
+
+		int[] rootMoves = new int[fullMoves.size()];
+		List<ForkJoinTask<long[]>> tasks = new ArrayList<>(rootMoves.length);
+
+		for (int i = 0; i < rootMoves.length; i++) {
+			int move = fullMoves.get(i);
+			Position clone = root.clonePosition();
+			rootMoves[i] = move;
+
+			tasks.add(ForkJoinTask.adapt(() -> {
+				clone.makeMove(move, true);
+				return Minimax.runPerft(clone, depth - 1, 1, color != 0, move);
+			}));
+		}
+
+		long[][] divide = new long[rootMoves.length][];
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+		try {
+			for (ForkJoinTask<long[]> task : tasks) {
+				pool.execute(task);
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				divide[i] = tasks.get(i).join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		return new ParallelPerft(depth, rootMoves, divide, System.nanoTime() - start);
+	}
+
+	public long nodesPerSecond() {
+		return total[0] * 1_000_000_000L / Math.max(1, elapsedNanos);
+	}
+}
@@ -0,0 +1,74 @@
+package engine;
+
+// Thinks on the opponent's time, searching the position after the reply we expect from them
+// hit() turns the running search into the real one, miss() throws it away
+public final class Ponder {
+	private static final int PROMOTION_BITS = 0xF << 22;
+
+	private final int expectedMove;
+	private final SearchContext ctx;
+	private final TimeManager timeManager;
+	private final Thread thread;
+	private volatile int result = -1;
+
+	private Ponder(Position position, int expectedMove, int minDepth, TimeManager timeManager) {
+		this.expectedMove = expectedMove;
+		this.timeManager = timeManager.ponder();
+
+		Position ponderPosition = position.clonePosition();
+		ponderPosition.makeMove(expectedMove, false);
+		ctx = new SearchContext(ponderPosition);
+
+		thread = new Thread(() -> result = Minimax.getComputerMove(ctx, minDepth, this.timeManager), "ponder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// null if there is nothing legal to ponder on, the clock of timeManager starts on a hit
+	public static Ponder start(Position position, int expectedMove, int minDepth, TimeManager timeManager) {
+		if (expectedMove == 0 || expectedMove == -1 || !isLegal(position, expectedMove)) return null;
+
+		return new Ponder(position, expectedMove, minDepth, timeManager);
+	}
+
+	// Reply we are pondering on, promotions are always to a queen
+	public int expectedMove() {
+		return expectedMove;
+	}
+
+	// Continues as the real search under the time limits and returns its move
+	public int hit() {
+		timeManager.ponderHit();
+		join();
+
+		return result;
+	}
+
+	public void miss() {
+		ctx.stop();
+		join();
+	}
+
+	// Line of the last search, from the position after the expected move
+	public int[] principalVariation() {
+		return ctx.getPrincipalVariation();
+	}
+
+	private void join() {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			ctx.stop();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Moves from the PV or the TT may not belong to this position, only the generator's moves are safe to play
+	private static boolean isLegal(Position position, int move) {
+		for (int legal : position.getAllLegalMoves(position.sideToMove)) {
+			if (legal == (move & ~PROMOTION_BITS)) return true;
+		}
+
+		return false;
+	}
+}
@@ -8,11 +8,11 @@ import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.stream.IntStream;
-import debug.DebugRender;
 public class Position {
 	// Static Fields, Global data
 	public static final byte[] whitePromotions = {5, 4, 2, 3};
 	public static final byte[] blackPromotions = {11, 10, 8, 9};
+	public static final int MAX_MOVES = 256; // Upper bound for one generated move list, also the size of search move buffers
 	
 	public static String[] allNames = {"whitePawns", "whiteKnights", "whiteBishops", "whiteRooks", "whiteQueens", "whiteKing", "blackPawns", "blackKnights", "blackBishops", "blackRooks", "blackQueens", "blackKing"};
 	public static HashMap<String, Byte> nameKeyConversion = new HashMap<String, Byte>();
@@ -70,6 +70,23 @@ public class Position {
 				allNames[pieceType - 1], ogRow, ogCol, toRow, toCol, (captureType != 0) ? "Captures " + allNames[captureType - 1] : "");
 	}
 	
+	// e2e4 style, with the promotion piece appended (e7e8q)
+	public static String toLongAlgebraic(int move) {
+		int from = move & 0x3F;
+		int to = (move >>> 6) & 0x3F;
+		int promotionKey = (move >>> 22) & 0xF;
+		
+		StringBuilder text = new StringBuilder(5);
+		text.append((char)('a' + from % 8)).append((char)('1' + from / 8));
+		text.append((char)('a' + to % 8)).append((char)('1' + to / 8));
+		
+		if (promotionKey != 0) {
+			text.append(" pnbrqk".charAt(promotionKey > 6 ? promotionKey - 6 : promotionKey));
+		}
+		
+		return text.toString();
+	}
+	
 	// End of static fields
 	public Position(String fenString) { // Initializes a Position w FEN (Use Clone Method for Engine)
 		loadPositionFromFEN(fenString);
@@ -94,6 +111,9 @@ public class Position {
 		pos.enPassantTarget = enPassantTarget;
 		pos.enPassantColor = enPassantColor;
 		
+		pos.whiteKingPos = whiteKingPos;
+		pos.blackKingPos = blackKingPos;
+		
 		pos.castlingRights = new boolean[] {
 			castlingRights[0],
 			castlingRights[1],
@@ -115,6 +135,7 @@ public class Position {
 		pos.pins = new int[2][];
 		
 		for (int i = 0; i < attacks.length; i++) {
+			if (attacks[i] == null) continue;
 			pos.attacks[i] = new int[attacks[i].length][];
 			
 			for (int j = 0; j < attacks[i].length; j++) {
@@ -126,12 +147,41 @@ public class Position {
 		}
 		
 		for (int i = 0; i < pins.length; i++) {
+			if (pins[i] == null) continue;
 			pos.pins[i] = new int[pins[i].length];
 			System.arraycopy(pins[i], 0, pos.pins[i], 0, pos.pins[i].length);
 		}
 		
 		pos.initOccupancy();
 		
+		// Attack state, so the clone can generate moves without a recompute
+		for (int color = 0; color < 2; color++) {
+			pos.psuedoAttacks[color] = psuedoAttacks[color];
+			pos.testLegalCaptures[color] = testLegalCaptures[color];
+			pos.testPins[color] = testPins[color];
+			System.arraycopy(squareToAttacks[color], 0, pos.squareToAttacks[color], 0, 64);
+			System.arraycopy(pieceAttacks[color], 0, pos.pieceAttacks[color], 0, 64);
+			pos.attackTracked[color] = attackTracked[color];
+			pos.pendingAttacks[color] = pendingAttacks[color];
+			pos.pendingPins[color] = pendingPins[color];
+			pos.legalCapturesDirty[color] = legalCapturesDirty[color];
+		}
+		
+		pos.whiteKingAttacker = whiteKingAttacker;
+		pos.blackKingAttacker = blackKingAttacker;
+		pos.whiteKingAttackerIsRay = whiteKingAttackerIsRay;
+		pos.blackKingAttackerIsRay = blackKingAttackerIsRay;
+		pos.whiteInDoubleCheck = whiteInDoubleCheck;
+		pos.blackInDoubleCheck = blackInDoubleCheck;
+		pos.whiteMaterialValue = whiteMaterialValue;
+		pos.blackMaterialValue = blackMaterialValue;
+		pos.phase = phase;
+		
+		// Game history, needed for repetition detection inside the search, with room for a full search on top
+		pos.repetitionHistory = new long[historyPly + 2 * SearchContext.MAX_PLY];
+		System.arraycopy(repetitionHistory, 0, pos.repetitionHistory, 0, historyPly);
+		pos.historyPly = historyPly;
+		
 		return pos;
 	}
 	
@@ -305,10 +355,132 @@ public class Position {
 	boolean whiteInDoubleCheck = false;
 	boolean blackInDoubleCheck = false;
 	
-	public void updateAttacksTEST(byte color) {
+	// Incremental attack cache, pieceAttacks[color][square] is what the piece on square attacked at the last update
+	// attackTracked is the occupancy the cache was built from, so vacated squares can be taken back out
+	long[][] pieceAttacks = new long[2][64];
+	long[] attackTracked = new long[2];
+	
+	// Lazy state, make/unmake only record which squares changed and each map is brought up to date on its first read
+	// pendingAttacks: touched squares not yet applied to the attack cache (psuedoAttacks, squareToAttacks, king attackers)
+	// pendingPins: touched squares not yet checked against the king lines for testPins
+	long[] pendingAttacks = {~0L, ~0L};
+	long[] pendingPins = {~0L, ~0L};
+	boolean[] legalCapturesDirty = {true, true};
+	
+	public void updateAttacksTEST(byte color) { // Full rebuild
+		pendingAttacks[color] = ~0L;
+		pendingPins[color] = ~0L;
+		ensureAttacks(color);
+		ensurePins(color);
+	}
+	
+	private void ensureAttacks(int color) {
+		if (pendingAttacks[color] != 0) {
+			updateAttacks((byte)color, pendingAttacks[color]);
+			pendingAttacks[color] = 0L;
+			legalCapturesDirty[0] = true; // Both sides read these attacks for their legal captures
+			legalCapturesDirty[1] = true;
+		}
+	}
+	
+	private void ensurePins(int color) {
+		long pending = pendingPins[color];
+		if (pending == 0) return;
+		
+		byte kingPos = (color == 0 ? whiteKingPos : blackKingPos);
+		if ((pending & (MagicBitboards.queenMasks[kingPos] | (1L << kingPos))) != 0) { // Pins only move when something on the king's lines was touched
+			testPins[color] = LegalityCheck.getPinnedPieceBitboard((byte)color, this);
+			legalCapturesDirty[color] = true;
+		}
+		
+		pendingPins[color] = 0L;
+	}
+	
+	private void ensureLegalCaptures(int color) {
+		ensureAttacks(color);
+		ensureAttacks(1 - color);
+		ensurePins(color);
+		
+		if (legalCapturesDirty[color]) {
+			updateLegalCaptures((byte)color);
+			legalCapturesDirty[color] = false;
+		}
+	}
+	
+	// Everything color attacks, pinned or not, including its own defended pieces
+	public long getPsuedoAttacks(int color) {
+		ensureAttacks(color);
+		return psuedoAttacks[color];
+	}
+	
+	public boolean isInCheck(int color) {
+		return (getPsuedoAttacks(1 - color) & (1L << (color == 0 ? whiteKingPos : blackKingPos))) != 0;
+	}
+	
+	private long pseudoAttacksFrom(int square, byte color) { // Expects the opponent king already removed from allOccupied
+		byte type = (byte)(engineLookup[square] > 6 ? engineLookup[square] - 6 : engineLookup[square]);
+		
+		if (type == 3 || type == 4) { // Rooks and Bishops, magic bitboards
+			long blockerMask = type == 3 ? MagicBitboards.bishopMasks[square] : MagicBitboards.rookMasks[square];
+			byte shift = type == 3 ? MagicBitboards.bishopShifts[square] :  MagicBitboards.rookShifts[square];
+			
+			long relevantBlockers = blockerMask & allOccupied;
+			long magic = type == 3 ? MagicBitboards.bishopMagics[square] : MagicBitboards.rookMagics[square];
+			long product = (relevantBlockers * magic);
+			int hash = (int)(product >>> shift);
+			
+			return (type == 3 ? MagicBitboards.bishopBitTableLookup[square][hash] :
+				MagicBitboards.rookBitTableLookup[square][hash]);
+		} else if (type == 5) { // Queens
+			long rookAttacks = MagicBitboards.rookBitTableLookup[square][(int)(((MagicBitboards.rookMasks[square] & allOccupied) * MagicBitboards.rookMagics[square]) >>> MagicBitboards.rookShifts[square])];
+			long bishopAttacks = MagicBitboards.bishopBitTableLookup[square][(int)(((MagicBitboards.bishopMasks[square] & allOccupied) * MagicBitboards.bishopMagics[square]) >>> MagicBitboards.bishopShifts[square])];
+			
+			return rookAttacks | bishopAttacks;
+		} else if (type == 1) { // Pawns
+			return MagicBitboards.pawnAttackMasks[color][square];
+		} else { // Knights and Kings
+			return MagicBitboards.globalMasks[type][square];
+		}
+	}
+	
+	// touched: squares whose occupancy changed since the last update
+	// Only pieces on those squares and sliders whose rays reached one of them get new lookups,
+	// the rest keep their cached attacks and are just summed up again
+	private void updateAttacks(byte color, long touched) {
+		long occupied = (color == 0 ? whiteOccupied : blackOccupied);
+		byte opponentKingPos = (color == 0 ? blackKingPos : whiteKingPos);
+		long[] attacksFrom = pieceAttacks[color];
+		long[] attackedBy = squareToAttacks[color];
+		
+		long dirty = touched & (attackTracked[color] | occupied);
+		long sliders = occupied & (color == 0 ? (bitboards[3] | bitboards[4] | bitboards[5]) : (bitboards[9] | bitboards[10] | bitboards[11]));
+		for (long bits = sliders & ~dirty; bits != 0; bits &= bits - 1) {
+			int square = Long.numberOfTrailingZeros(bits);
+			
+			if ((attacksFrom[square] & touched) != 0) {
+				dirty |= (1L << square);
+			}
+		}
+		
+		allOccupied ^= (1L << opponentKingPos);
+		for (long bits = dirty; bits != 0; bits &= bits - 1) {
+			int square = Long.numberOfTrailingZeros(bits);
+			long newAttacks = (occupied & (1L << square)) != 0 ? pseudoAttacksFrom(square, color) : 0L;
+			
+			for (long targets = attacksFrom[square]; targets != 0; targets &= targets - 1) {
+				attackedBy[Long.numberOfTrailingZeros(targets)] &= ~(1L << square);
+			}
+			
+			for (long targets = newAttacks; targets != 0; targets &= targets - 1) {
+				attackedBy[Long.numberOfTrailingZeros(targets)] |= (1L << square);
+			}
+			
+			attacksFrom[square] = newAttacks;
+		}
+		allOccupied ^= (1L << opponentKingPos);
+		attackTracked[color] = occupied;
+		
 		psuedoAttacks[color] = 0L;
-		testLegalCaptures[color] = 0L;
-		squareToAttacks[color] = new long[64];
 		
 		if (color == 0) {
 			blackKingAttacker = -1;
@@ -322,56 +494,12 @@ public class Position {
 			blackMaterialValue = 0;
 		}
 		
-		int[] pieceLocations = (color == 0 ? MagicBitboards.getSetBits(whiteOccupied) : MagicBitboards.getSetBits(blackOccupied));
-		byte kingPos = (color == 0 ? whiteKingPos : blackKingPos);
-		byte opponentKingPos = (color == 0 ? blackKingPos : whiteKingPos);
-		boolean inCheck = (psuedoAttacks[color] & (1L << kingPos)) != 0;
-		byte ourAttacker = (color == 0 ? whiteKingAttacker : blackKingAttacker);
-		boolean ourAttackerIsRay = (color == 0 ? whiteKingAttackerIsRay : blackKingAttackerIsRay);
-		allOccupied ^= (1L << opponentKingPos);
-		
-		for (int square : pieceLocations) {
+		for (long bits = occupied; bits != 0; bits &= bits - 1) {
+			int square = Long.numberOfTrailingZeros(bits);
 			byte type = (byte)(engineLookup[square] > 6 ? engineLookup[square] - 6 : engineLookup[square]);
-			long pieceAttacks = 0L;
-			long legalAttacks = 0L;
-
-			if (type == 3 || type == 4) { // Rooks and Bishops, magic bitboards
-				long blockerMask = type == 3 ? MagicBitboards.bishopMasks[square] : MagicBitboards.rookMasks[square];
-				byte shift = type == 3 ? MagicBitboards.bishopShifts[square] :  MagicBitboards.rookShifts[square];
-				
-				long relevantBlockers = blockerMask & allOccupied;
-				long magic = type == 3 ? MagicBitboards.bishopMagics[square] : MagicBitboards.rookMagics[square];
-				long product = (relevantBlockers * magic);
-				int hash = (int)(product >>> shift);
-				
-				pieceAttacks = (type == 3 ? MagicBitboards.bishopBitTableLookup[square][hash] :
-					MagicBitboards.rookBitTableLookup[square][hash]);
-			} else if (type == 5) { // Queens
-				long rookAttacks = MagicBitboards.rookBitTableLookup[square][(int)(((MagicBitboards.rookMasks[square] & allOccupied) * MagicBitboards.rookMagics[square]) >>> MagicBitboards.rookShifts[square])];
-				long bishopAttacks = MagicBitboards.bishopBitTableLookup[square][(int)(((MagicBitboards.bishopMasks[square] & allOccupied) * MagicBitboards.bishopMagics[square]) >>> MagicBitboards.bishopShifts[square])];
-				
-				long queenAttacks = rookAttacks | bishopAttacks;
-				pieceAttacks = (queenAttacks);
-			} else if (type == 1) { // Pawns
-				pieceAttacks = MagicBitboards.pawnAttackMasks[color][square];
-			} else { // Knights and Kings
-				pieceAttacks = MagicBitboards.globalMasks[type][square];
-			}
-
-			legalAttacks = pieceAttacks;
-			if (inCheck) {				
-				if (type == 6) {
-					legalAttacks |= (MagicBitboards.globalMasks[type][square] &~ (psuedoAttacks[1-color] | (color == 0 ? whiteOccupied : blackOccupied)));
-				} else {
-					legalAttacks &= ((ourAttackerIsRay ? MagicBitboards.lineBB(kingPos, ourAttacker) : 0));
-					legalAttacks |= (((type == 1 ? MagicBitboards.pawnAttackMasks[color][square] : MagicBitboards.globalMasks[type][square])) &~ (color == 0 ? whiteOccupied : blackOccupied)) & (1L << ourAttacker);
-				}
-			} else if ((testPins[color] & (1L << square)) != 0) {
-				legalAttacks &= MagicBitboards.specialLineBB(kingPos, (byte)square);
-			}
+			long attacks = attacksFrom[square];
 			
-			if (type == 6) legalAttacks &= ~psuedoAttacks[1-color];
-			if ((pieceAttacks & (1L << opponentKingPos)) != 0) {
+			if ((attacks & (1L << opponentKingPos)) != 0) {
 				boolean isRay = (type == 3 || type == 4 || type == 5);
 				if (color == 0) {
 					blackInDoubleCheck = blackKingAttacker != -1;
@@ -386,18 +514,33 @@ public class Position {
 				}
 			}
 			
-			psuedoAttacks[color] |= pieceAttacks;
-			testLegalCaptures[color] |= legalAttacks;
+			psuedoAttacks[color] |= attacks;
 			if (type != 1) {
 				if (color == 0) whiteMaterialValue += EvaluateBoard.valueMap[engineLookup[square]]; else blackMaterialValue += EvaluateBoard.valueMap[engineLookup[square]];
 			}
+		}
+	}
+	
+	// Attacks filtered by pins, the king may only take undefended pieces
+	private void updateLegalCaptures(byte color) {
+		long occupied = (color == 0 ? whiteOccupied : blackOccupied);
+		byte kingPos = (color == 0 ? whiteKingPos : blackKingPos);
+		long[] attacksFrom = pieceAttacks[color];
+		long legalCaptures = 0L;
+		
+		for (long bits = occupied; bits != 0; bits &= bits - 1) {
+			int square = Long.numberOfTrailingZeros(bits);
+			long legalAttacks = attacksFrom[square];
 			
-			for (int target : MagicBitboards.getSetBits(pieceAttacks)) {
-				squareToAttacks[color][target] |= (1L << square);
+			if ((testPins[color] & (1L << square)) != 0) {
+				legalAttacks &= MagicBitboards.specialLineBB(kingPos, (byte)square);
 			}
+			
+			if (square == kingPos) legalAttacks &= ~psuedoAttacks[1 - color];
+			legalCaptures |= legalAttacks;
 		}
 		
-		allOccupied ^= (1L << opponentKingPos);
+		testLegalCaptures[color] = legalCaptures;
 	}
 	
 	public int[][] getAttacks(byte color, boolean isInitialization) {
@@ -463,6 +606,9 @@ public class Position {
 		int[] pieceLocations = MagicBitboards.getSetBits(myOccupancy);
 		long debugBoard = 0L;
 		
+		ensureAttacks(1 - color);
+		ensurePins(color);
+		
 		byte kingPos = (color == 0 ? whiteKingPos : blackKingPos);
 		byte opponentKingPos = (color == 0 ? blackKingPos : whiteKingPos);
 		boolean inCheck = (psuedoAttacks[1 - color] & (1L << kingPos)) != 0;
@@ -569,14 +715,33 @@ public class Position {
 	}
 	
 	public int[] getAllLegalMoves(byte color) {
-		int[] moves = new int[128];
-		int moveCount = 0;
+		int[] moves = new int[MAX_MOVES];
+		return Arrays.copyOf(moves, getAllLegalMoves(color, moves));
+	}
+	
+	// Writes into a caller owned buffer (at least MAX_MOVES long) and returns the move count, used by the search to avoid allocating
+	public int getAllLegalMoves(byte color, int[] moves) {
+		return getLegalMoves(color, moves, 0, ~0L, ~0L);
+	}
+	
+	// Stops at the first piece with a legal move, the king goes first since it can move in most positions
+	public boolean hasLegalMove(byte color, int[] moves) {
+		long king = bitboards[color == 0 ? 6 : 12];
+		return getLegalMoves(color, moves, 0, king, ~0L) > 0 || getLegalMoves(color, moves, 0, ~king, ~0L) > 0;
+	}
+	
+	// Legal moves of the pieces on fromMask that land on targetMask, written from moves[offset], returns the new end
+	// Lets the move picker generate captures and quiets as separate stages, or check a single stored move
+	public int getLegalMoves(byte color, int[] moves, int offset, long fromMask, long targetMask) {
+		int moveCount = offset;
 
 		long myOccupancy = (color == 0) ? whiteOccupied : blackOccupied;
 		long opponentOccupancy = (color == 0) ? blackOccupied : whiteOccupied;
-		int[] pieceLocations = MagicBitboards.getSetBits(myOccupancy);
 		long debugBoard = 0L;
 		
+		ensureAttacks(1 - color);
+		ensurePins(color);
+		
 		byte kingPos = (color == 0 ? whiteKingPos : blackKingPos);
 		byte opponentKingPos = (color == 0 ? blackKingPos : whiteKingPos);
 		boolean inCheck = (psuedoAttacks[1 - color] & (1L << kingPos)) != 0;
@@ -584,7 +749,8 @@ public class Position {
 		boolean ourAttackerIsRay = (color == 0 ? whiteKingAttackerIsRay : blackKingAttackerIsRay);
 		boolean kingImobilized = color == 0 ? whiteInDoubleCheck : blackInDoubleCheck;
 		
-		for (int square : pieceLocations) { 
+		for (long squareBits = myOccupancy & fromMask; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			byte mainType = engineLookup[square];
 			byte subType = (byte)(mainType > 6 ? mainType - 6 : mainType);
 			long psuedoMoves = 0L;
@@ -656,7 +822,8 @@ public class Position {
 				}
 			}
 			
-			for (int target : MagicBitboards.getSetBits(psuedoMoves)) {
+			for (long targetBits = psuedoMoves & targetMask; targetBits != 0; targetBits &= targetBits - 1) {
+				int target = Long.numberOfTrailingZeros(targetBits);
 				int move = square;
 				move |= (target << 6);
 				move |= engineLookup[square] << 12;
@@ -682,15 +849,20 @@ public class Position {
 		}
 		
 		//DebugRender.renderLong(debugBoard);
-		return Arrays.copyOf(moves, moveCount);
+		return moveCount;
 	}
 	
 	public int[] getCapturesChecksPromotions(byte color) {
-		int[] moves = new int[64];
+		int[] moves = new int[MAX_MOVES];
+		return Arrays.copyOf(moves, getCapturesChecksPromotions(color, moves));
+	}
+	
+	public int getCapturesChecksPromotions(byte color, int[] moves) {
 		int moveCount = 0;
 		
 		long opponentOccupancy = (color == 0) ? blackOccupied : whiteOccupied;
 		long myOccupied = (color == 0) ? whiteOccupied : blackOccupied;
+		ensureLegalCaptures(color);
 		long myAttacks = testLegalCaptures[color];
 		long captures = myAttacks & opponentOccupancy;
 		
@@ -698,12 +870,14 @@ public class Position {
 		byte opponentKingPos = color == 0 ? blackKingPos : whiteKingPos;
 		byte myKingPos = color == 0 ? whiteKingPos : blackKingPos;
 		
-		for (int square : MagicBitboards.getSetBits(bitboards[color == 0 ? 3 : 9])) {
+		for (long squareBits = bitboards[color == 0 ? 3 : 9]; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			long ourRange = MagicBitboards.bishopAttackMasks[square];
 			long canCheckSquares = MagicBitboards.bishopAttackMasks[opponentKingPos];
 			long checkingMoves = (ourRange & canCheckSquares) &~ allOccupied; // Exclude Captures
 			
-			for (int checkTarget : MagicBitboards.getSetBits(checkingMoves)) {
+			for (long checkTargetBits = checkingMoves; checkTargetBits != 0; checkTargetBits &= checkTargetBits - 1) {
+				int checkTarget = Long.numberOfTrailingZeros(checkTargetBits);
 				if ((MagicBitboards.lineBB((byte)square, (byte)checkTarget) & allOccupied) != 0) continue;
 				if ((MagicBitboards.lineBB((byte)checkTarget, (byte)opponentKingPos) & allOccupied) != 0) continue;
 				if ((testLegalCaptures[color] & (1L << checkTarget)) == 0) continue;
@@ -718,12 +892,14 @@ public class Position {
 			}
 		}
 		
-		for (int square : MagicBitboards.getSetBits(bitboards[color == 0 ? 4 : 10])) {
+		for (long squareBits = bitboards[color == 0 ? 4 : 10]; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			long ourRange = MagicBitboards.rookAttackMasks[square];
 			long canCheckSquares = MagicBitboards.rookAttackMasks[opponentKingPos];
 			long checkingMoves = (ourRange & canCheckSquares) &~ allOccupied; // Exclude Captures
 			
-			for (int checkTarget : MagicBitboards.getSetBits(checkingMoves)) {
+			for (long checkTargetBits = checkingMoves; checkTargetBits != 0; checkTargetBits &= checkTargetBits - 1) {
+				int checkTarget = Long.numberOfTrailingZeros(checkTargetBits);
 				if ((MagicBitboards.lineBB((byte)square, (byte)checkTarget) & allOccupied) != 0) continue;
 				if ((MagicBitboards.lineBB((byte)checkTarget, (byte)opponentKingPos) & allOccupied) != 0) continue;
 				if ((testLegalCaptures[color] & (1L << checkTarget)) == 0) continue;
@@ -738,12 +914,14 @@ public class Position {
 			}
 		}
 		
-		for (int square : MagicBitboards.getSetBits(bitboards[color == 0 ? 5 : 11])) {
+		for (long squareBits = bitboards[color == 0 ? 5 : 11]; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			long ourRange = MagicBitboards.rookAttackMasks[square] | MagicBitboards.bishopAttackMasks[square];
 			long canCheckSquares = MagicBitboards.rookAttackMasks[opponentKingPos] | MagicBitboards.bishopAttackMasks[opponentKingPos];
 			long checkingMoves = (ourRange & canCheckSquares) &~ allOccupied; // Exclude Captures
 			
-			for (int checkTarget : MagicBitboards.getSetBits(checkingMoves)) {
+			for (long checkTargetBits = checkingMoves; checkTargetBits != 0; checkTargetBits &= checkTargetBits - 1) {
+				int checkTarget = Long.numberOfTrailingZeros(checkTargetBits);
 				if ((MagicBitboards.lineBB((byte)square, (byte)checkTarget) & allOccupied) != 0) continue;
 				if ((MagicBitboards.lineBB((byte)checkTarget, (byte)opponentKingPos) & allOccupied) != 0) continue;
 				if ((testLegalCaptures[color] & (1L << checkTarget)) == 0) continue;
@@ -758,7 +936,8 @@ public class Position {
 			}
 		}
 		
-		for (int square : MagicBitboards.getSetBits(bitboards[color == 0 ? 1 : 7])) {
+		for (long squareBits = bitboards[color == 0 ? 1 : 7]; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			int dir = (color == 0) ? 8 : -8;
 			int subPromotionRow = (color == 0) ? 6 : 1;
 			boolean onPromotionRow = (square / 8) == subPromotionRow;
@@ -775,7 +954,8 @@ public class Position {
 			}
 	
 			long pawnCaptures = MagicBitboards.pawnAttackMasks[color][square] & opponentOccupancy;
-			for (int capt : MagicBitboards.getSetBits(pawnCaptures)) {
+			for (long captBits = pawnCaptures; captBits != 0; captBits &= captBits - 1) {
+				int capt = Long.numberOfTrailingZeros(captBits);
 				int move = square;
 				move |= (capt << 6);
 				move |= ((color == 0 ? 1 : 7) << 12);
@@ -787,10 +967,12 @@ public class Position {
 		}
 		
 		// Captures
-		for (int squareAttacked : MagicBitboards.getSetBits(testLegalCaptures[color] & opponentOccupancy)) {
+		for (long squareAttackedBits = testLegalCaptures[color] & opponentOccupancy; squareAttackedBits != 0; squareAttackedBits &= squareAttackedBits - 1) {
+			int squareAttacked = Long.numberOfTrailingZeros(squareAttackedBits);
 			long attackers = squareToAttacks[color][squareAttacked];
 			
-			for (int origin : MagicBitboards.getSetBits(attackers)) {
+			for (long originBits = attackers; originBits != 0; originBits &= originBits - 1) {
+				int origin = Long.numberOfTrailingZeros(originBits);
 				int move = origin;
 				move |= (squareAttacked << 6);
 				move |= (engineLookup[origin] << 12);
@@ -801,16 +983,23 @@ public class Position {
 			}
 		}
 		
-		return Arrays.copyOf(moves, moveCount);
+		return moveCount;
 	}
 	
 	public int[][][] attacks = new int[2][][];
 	public int[][][] pseudolegalAttacks = new int[2][][];
 	public int[][] pins = new int[2][];
 	
-	private Deque<byte[]> enPassantStack = new ArrayDeque<byte[]>();
-	private Deque<boolean[]> castleStack = new ArrayDeque<boolean[]>();
-	private Deque<long[]> zobristStack = new ArrayDeque<long[]>();
+	// Undo stack for engine moves, preallocated so make/unmake never allocate
+	// undoState packs castling rights (bits 0-3), en passant target + 1 (bits 4-10) and en passant color + 1 (bits 11-12)
+	private static final int UNDO_STACK_SIZE = 256;
+	private int[] undoState = new int[UNDO_STACK_SIZE];
+	private long[] undoZobrist = new long[UNDO_STACK_SIZE];
+	private int undoPly = 0;
+	
+	private int castlingBits() {
+		return (castlingRights[0] ? 1 : 0) | (castlingRights[1] ? 2 : 0) | (castlingRights[2] ? 4 : 0) | (castlingRights[3] ? 8 : 0);
+	}
 
 	public boolean moveCausesCheck(int move) { // Checks if a move will cause a new check, before calling the actual move
 		if (move == -1) return false; 
@@ -841,23 +1030,41 @@ public class Position {
 		return false;
 	}
 	
-	// Get attacks
-	// Get Pins
-	// set pins and then filter attacks with pins
-	private void updateAttackAndPins() {
-		updateAttacksTEST((byte)0);
-		updateAttacksTEST((byte)1);
+	// Attacks and pins are not computed here, only marked stale (see ensureAttacks / ensurePins / ensureLegalCaptures)
+	private void updateAttackAndPins(long touched) {
+		pendingAttacks[0] |= touched;
+		pendingAttacks[1] |= touched;
+		pendingPins[0] |= touched;
+		pendingPins[1] |= touched;
+	}
+	
+	// Squares whose occupancy a move changes
+	private static long touchedSquares(int move) {
+		byte from = (byte)(move & 0x3F);
+		byte to = (byte)((move >>> 6) & 0x3F);
+		byte color = (byte)((move >>> 31) & 1L);
+		boolean isEnPassant = ((byte)(move >>> 29) & 1L) != 0;
+		boolean isCastle = ((byte)(move >>> 28) & 1L) != 0;
+		byte castleType = (byte)((move >>> 20) & 3L);
 		
-		testPins[0] = LegalityCheck.getPinnedPieceBitboard((byte)0, this);
-		testPins[1] = LegalityCheck.getPinnedPieceBitboard((byte)1, this);		
+		long touched = (1L << from) | (1L << to);
+		if (isEnPassant) {
+			touched |= (1L << (to - (color == 0 ? 8 : -8)));
+		}
+		
+		if (isCastle) {
+			touched |= (castleType % 2 == 0) ? (1L << (from + 3)) | (1L << (from + 1)) : (1L << (from - 4)) | (1L << (from - 1));
+		}
+		
+		return touched;
 	}
 	
 	private void logCastleStack() {
 		System.out.println("_______________________");
-		System.out.println("Castle Stack Length: " + castleStack.size());
+		System.out.println("Castle Stack Length: " + undoPly);
 		
-		for (boolean[] rights : castleStack) {
-			System.out.println(Arrays.toString(rights));
+		for (int i = 0; i < undoPly; i++) {
+			System.out.println(Integer.toBinaryString(undoState[i] & 0xF));
 		}
 		System.out.println("_________________________");
 	}
@@ -865,6 +1072,9 @@ public class Position {
 	public int lastGuiMove = -1;
 	public int[] moveHistory = new int[256];
 	public int currentMoveCount = 0;
+	
+	public long[] repetitionHistory = new long[256];
+	public int historyPly = 0;
 	public void makeMove(int move, boolean isEngine) {
 		byte from = (byte)(move & 0x3F);
 		byte to = (byte)((move >>> 6) & 0x3F);
@@ -880,27 +1090,13 @@ public class Position {
 		byte castleType = (byte)((move >>> 20) & 3L);
 		
 		byte savedEPTarget = enPassantTarget;
-		boolean[] savedCTR = new boolean[] {
-			castlingRights[0],
-			castlingRights[1],
-			castlingRights[2],
-			castlingRights[3],
-		};
+		int savedCTR = castlingBits();
 		
 		// StackData
 		if (isEngine) {
-			castleStack.add(new boolean[] {
-				castlingRights[0],
-				castlingRights[1],
-				castlingRights[2],
-				castlingRights[3],
-			});
-			
-			enPassantStack.add(new byte[] {
-				enPassantTarget, enPassantColor,	
-			});
-			
-			zobristStack.add(new long[] {zobristHash});
+			undoState[undoPly] = savedCTR | ((enPassantTarget + 1) << 4) | ((enPassantColor + 1) << 11);
+			undoZobrist[undoPly] = zobristHash;
+			undoPly++;
 		} else {
 			lastGuiMove = move;
 		}
@@ -1063,8 +1259,17 @@ public class Position {
 		cardinalThreats[2] = bitboards[10] | bitboards[11];
 		cardinalThreats[3] = bitboards[9] | bitboards[11];
 		
-		updateAttackAndPins();
-		Minimax.repetitionHistory[Minimax.historyPly++] = zobristHash;
+		updateAttackAndPins(touchedSquares(move));
+		
+		if (historyPly == repetitionHistory.length) { // Long games, the search stays well inside the slack a clone gets
+			repetitionHistory = Arrays.copyOf(repetitionHistory, repetitionHistory.length * 2);
+		}
+		
+		if (currentMoveCount == moveHistory.length) {
+			moveHistory = Arrays.copyOf(moveHistory, moveHistory.length * 2);
+		}
+		
+		repetitionHistory[historyPly++] = zobristHash;
 		moveHistory[currentMoveCount++] = move;
 	}
 	
@@ -1197,19 +1402,19 @@ public class Position {
 			}
 		}
 		
-		boolean[] castleData = castleStack.removeLast();
-		castlingRights[0] = castleData[0];
-		castlingRights[1] = castleData[1];
-		castlingRights[2] = castleData[2];
-		castlingRights[3] = castleData[3];
+		undoPly--;
+		int state = undoState[undoPly];
+		castlingRights[0] = (state & 1) != 0;
+		castlingRights[1] = (state & 2) != 0;
+		castlingRights[2] = (state & 4) != 0;
+		castlingRights[3] = (state & 8) != 0;
 		
-		byte[] epData = enPassantStack.removeLast();
-		enPassantTarget = epData[0];
-		enPassantColor = epData[1];
+		enPassantTarget = (byte)(((state >>> 4) & 0x7F) - 1);
+		enPassantColor = (byte)(((state >>> 11) & 0x3) - 1);
 		
 		// Side to Move and Zobrist
 		sideToMove = (byte)(1 - sideToMove);
-		zobristHash = zobristStack.removeLast()[0];
+		zobristHash = undoZobrist[undoPly];
 		
 		// Cardinal Updating
 		cardinalThreats[0] = bitboards[4] | bitboards[5];
@@ -1218,8 +1423,8 @@ public class Position {
 		cardinalThreats[2] = bitboards[10] | bitboards[11];
 		cardinalThreats[3] = bitboards[9] | bitboards[11];
 		
-		updateAttackAndPins();
-		Minimax.historyPly--;
+		updateAttackAndPins(touchedSquares(move));
+		historyPly--;
 		currentMoveCount--;
 	}
 	
@@ -1228,17 +1433,95 @@ public class Position {
 		zobristHash ^= whiteToMoveKey;
 	}
 	
+	// STATIC EXCHANGE EVALUATION
+	// Piece values for exchanges, indexed by piece type (1-6), the king is priced so it never takes into a defended square
+	private static final int[] seeValues = {0, 100, 300, 320, 500, 900, 20_000};
+	private final int[] seeGain = new int[32];
+	
+	// Every piece of both colors attacking square with the given occupancy
+	private long attackersTo(int square, long occupied) {
+		long bishopsQueens = bitboards[3] | bitboards[5] | bitboards[9] | bitboards[11];
+		long rooksQueens = bitboards[4] | bitboards[5] | bitboards[10] | bitboards[11];
+		
+		return (MagicBitboards.pawnAttackMasks[1][square] & bitboards[1])
+			| (MagicBitboards.pawnAttackMasks[0][square] & bitboards[7])
+			| (MagicBitboards.globalMasks[2][square] & (bitboards[2] | bitboards[8]))
+			| (MagicBitboards.globalMasks[6][square] & (bitboards[6] | bitboards[12]))
+			| (MagicBitboards.bishopAttacks(square, occupied) & bishopsQueens)
+			| (MagicBitboards.rookAttacks(square, occupied) & rooksQueens);
+	}
+	
+	// Material the side making this capture wins (or loses if negative) once all exchanges on the target square are played out
+	// Each side recaptures with its least valuable piece, sliders behind a piece that just captured join in (x-rays)
+	// Pins are ignored
+	public int see(int move) {
+		int from = move & 0x3F;
+		int to = (move >>> 6) & 0x3F;
+		byte captureType = (byte)((move >>> 16) & 0xF);
+		byte pieceType = (byte)((move >>> 12) & 0xF);
+		int side = 1 - ((move >>> 31) & 1);
+		
+		long occupied = allOccupied ^ (1L << from);
+		long bishopsQueens = bitboards[3] | bitboards[5] | bitboards[9] | bitboards[11];
+		long rooksQueens = bitboards[4] | bitboards[5] | bitboards[10] | bitboards[11];
+		long attackers = attackersTo(to, occupied) & occupied;
+		
+		int depth = 0;
+		seeGain[0] = captureType == 0 ? 0 : seeValues[captureType > 6 ? captureType - 6 : captureType];
+		int onSquare = seeValues[pieceType > 6 ? pieceType - 6 : pieceType]; // Value of the piece that would be taken next
+		
+		while (depth < seeGain.length - 1) {
+			long sideAttackers = attackers & (side == 0 ? whiteOccupied : blackOccupied);
+			if (sideAttackers == 0) break;
+			
+			int attackerSquare = -1;
+			int attackerType = 0;
+			for (int type = 1; type <= 6; type++) {
+				long ofType = sideAttackers & bitboards[side == 0 ? type : type + 6];
+				
+				if (ofType != 0) {
+					attackerSquare = Long.numberOfTrailingZeros(ofType);
+					attackerType = type;
+					break;
+				}
+			}
+			
+			depth++;
+			seeGain[depth] = onSquare - seeGain[depth - 1]; // What this side is up if the exchange stopped after its capture
+			
+			onSquare = seeValues[attackerType];
+			occupied ^= (1L << attackerSquare);
+			
+			// Removing the attacker may uncover a slider behind it
+			if (attackerType == 1 || attackerType == 3 || attackerType == 5) {
+				attackers |= MagicBitboards.bishopAttacks(to, occupied) & bishopsQueens;
+			}
+			
+			if (attackerType == 4 || attackerType == 5) {
+				attackers |= MagicBitboards.rookAttacks(to, occupied) & rooksQueens;
+			}
+			
+			attackers &= occupied;
+			side = 1 - side;
+		}
+		
+		while (depth > 0) {
+			seeGain[depth - 1] = -Math.max(-seeGain[depth - 1], seeGain[depth]);
+			depth--;
+		}
+		
+		return seeGain[0];
+	}
+	
 	private static final int[] passedBonuses = {0, 0, 5, 5, 10, 20, 35, 70};
 	public int phase = 0;
 	public int getEval(int side) {		
-		int[] whiteLocations = MagicBitboards.getSetBits(whiteOccupied);
-		int[] blackLocations = MagicBitboards.getSetBits(blackOccupied);
-		
 		phase = 0;
 		int score = 0;
 		
 		// Material and phase calculation
-		for (int square : whiteLocations) {
+		for (long squareBits = whiteOccupied; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			byte pieceType = engineLookup[square];
 			
 			score += EvaluateBoard.valueMap[pieceType];	
@@ -1260,7 +1543,8 @@ public class Position {
 			}
 		}
 		
-		for (int square : blackLocations) {
+		for (long squareBits = blackOccupied; squareBits != 0; squareBits &= squareBits - 1) {
+			int square = Long.numberOfTrailingZeros(squareBits);
 			byte pieceType = engineLookup[square];
 			score -= EvaluateBoard.valueMap[pieceType];
 			score -= EvaluateBoard.pst[pieceType-7][(7 - (square / 8)) * 8 + (square % 8)];
@@ -1304,8 +1588,17 @@ public class Position {
 	private static long[] castlingKeys = new long[4];
 	public static long whiteToMoveKey; // Public so a null move can toggle the side to move
 	
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq";
+	
+	// Fixed so hashes, node counts and TT snapshots are the same from run to run
+	public static final long DEFAULT_ZOBRIST_SEED = 0x4A617661436865L;
+	
 	public static void initGlobalZobristKeys() {
-		Random rng = new Random();
+		initGlobalZobristKeys(DEFAULT_ZOBRIST_SEED);
+	}
+	
+	public static void initGlobalZobristKeys(long seed) {
+		Random rng = new Random(seed);
 				
 		// Pieces Keys
 		for (int i = 0; i < 13; i++) {
@@ -1329,6 +1622,27 @@ public class Position {
 		}
 	}
 	
+	// Identifies the key set, anything stored by hash (TT snapshots) is only valid under the same keys
+	public static long zobristFingerprint() {
+		long fingerprint = whiteToMoveKey;
+		
+		for (long[] pieceKeys : zobristKeys) {
+			for (long key : pieceKeys) {
+				fingerprint = fingerprint * 31 + key;
+			}
+		}
+		
+		for (long key : enPassantKeys) {
+			fingerprint = fingerprint * 31 + key;
+		}
+		
+		for (long key : castlingKeys) {
+			fingerprint = fingerprint * 31 + key;
+		}
+		
+		return fingerprint;
+	}
+	
 	public void initializeZobristHash() {
 		// Initializing Hash
 		int[] pieceLocations = MagicBitboards.getSetBits(allOccupied);
@@ -1349,7 +1663,7 @@ public class Position {
 		if (enPassantTarget != -1) {zobristHash ^= enPassantKeys[enPassantTarget];};
 	}
 	
-	public void updateZobrist(int move, int previousEnPassantTarget, boolean[] previousCTR) {
+	public void updateZobrist(int move, int previousEnPassantTarget, int previousCTR) {
 		byte from = (byte)(move & 0x3F);
 		byte to = (byte)((move >>> 6) & 0x3F);
 		byte originKey = (byte)((move >>> 12) & 0xF);
@@ -1389,7 +1703,7 @@ public class Position {
 		}
 		
 		for (byte i = 0; i < 4; i++) {
-			if (previousCTR[i]) { // Clear current keys
+			if ((previousCTR & (1 << i)) != 0) { // Clear current keys
 				zobristHash ^= castlingKeys[i];
 			}
 			
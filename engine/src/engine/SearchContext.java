@@ -0,0 +1,129 @@
+package engine;
+
+import java.util.Arrays;
+
+// Everything a single search mutates, one instance per search thread
+// The transposition table stays global (TT) since it is meant to be shared
+public class SearchContext {
+	public static final int MAX_PLY = 128;
+	
+	public final Position position;
+	
+	int[][] killerMoves = new int[MAX_PLY][2]; // Moves that caused beta cutoff
+	int[][] counterHeuristic = new int[64][64]; // The last best replies to each move
+	int[][][] historyHeuristic = new int[2][64][64]; // [color][from][to], how often a quiet move caused a cutoff, weighted by depth
+	int[][] quietsSearched = new int[MAX_PLY][Position.MAX_MOVES]; // Quiets tried at each ply before the current one, they get a history malus on a cutoff
+	// Triangular PV table, pvTable[ply] holds the best line found from ply on, in pvTable[ply][ply .. pvLength[ply])
+	int[][] pvTable = new int[MAX_PLY][MAX_PLY];
+	int[] pvLength = new int[MAX_PLY];
+	
+	// Line of the last finished iteration, searched first by the next one while the path still matches it
+	int[] previousPv = new int[MAX_PLY];
+	int previousPvLength = 0;
+	boolean followPv = false; // Set by the parent right before it searches its previous PV move
+	boolean afterNullMove = false; // Set by the parent right before it searches its null move, the child has no previous move
+	
+	// Per ply move lists and their ordering scores, so the search never allocates while generating moves
+	int[][] moveBuffers = new int[MAX_PLY][Position.MAX_MOVES];
+	int[][] moveScores = new int[MAX_PLY][Position.MAX_MOVES];
+	MovePicker[] movePickers = new MovePicker[MAX_PLY];
+	
+	long nodes = 0; // Nodes visited by this context in the current search
+	public long totalNodes = 0; // Nodes of the last search including Lazy SMP helpers
+	volatile boolean abort = false; // Set by the owner of the search to unwind it early
+	TimeManager timeManager; // Hard limit of the running iteration, null while it has to finish regardless
+	public IterationListener iterationListener = null; // Replaces the per iteration log line when set
+	public long nodeLimit = Long.MAX_VALUE; // Aborts the search after this many nodes of this context, even before minDepth, helpers are not counted
+	
+	public SearchContext(Position position) { // Takes ownership of the position, pass a clone if it is shared
+		this.position = position;
+		
+		for (int ply = 0; ply < MAX_PLY; ply++) {
+			movePickers[ply] = new MovePicker(this, ply);
+		}
+	}
+	
+	// Unwinds the running search, the best move of the finished part is still returned
+	// Before a search starts it ends that search right away, once a search has returned the context can search again
+	public void stop() {
+		abort = true;
+	}
+	
+	// Called once per node, only reads the clock every POLL_INTERVAL nodes
+	void checkTime() {
+		if (nodes >= nodeLimit) {
+			abort = true;
+		} else if ((nodes & (TimeManager.POLL_INTERVAL - 1)) == 0 && timeManager != null && timeManager.hardLimitReached()) {
+			abort = true;
+		}
+	}
+	
+	static final int HISTORY_MAX = 16_384;
+	
+	// Gravity update, entries close to the bound move less so scores stay within +-HISTORY_MAX
+	static void updateHistory(int[][] history, int move, int bonus) {
+		int[] fromHistory = history[move & 0x3F];
+		int to = (move >>> 6) & 0x3F;
+		
+		fromHistory[to] += bonus - fromHistory[to] * Math.abs(bonus) / HISTORY_MAX;
+	}
+	
+	// Halved before every iteration so the cutoffs of the last iterations weigh the most
+	void ageHistory() {
+		for (int[][] colorHistory : historyHeuristic) {
+			for (int[] fromHistory : colorHistory) {
+				for (int to = 0; to < 64; to++) {
+					fromHistory[to] /= 2;
+				}
+			}
+		}
+	}
+	
+	// move raised alpha at ply, its line becomes move followed by the child's line
+	void updatePv(int ply, int move) {
+		int[] line = pvTable[ply];
+		line[ply] = move;
+		
+		int childLength = ply + 1 < MAX_PLY ? pvLength[ply + 1] : ply + 1;
+		if (childLength > ply + 1) {
+			System.arraycopy(pvTable[ply + 1], ply + 1, line, ply + 1, childLength - (ply + 1));
+		}
+		
+		pvLength[ply] = Math.max(childLength, ply + 1);
+	}
+	
+	// Copies the root line once an iteration completes, returns its length
+	int savePv() {
+		previousPvLength = pvLength[0];
+		System.arraycopy(pvTable[0], 0, previousPv, 0, previousPvLength);
+		return previousPvLength;
+	}
+	
+	public int[] getPrincipalVariation() {
+		return Arrays.copyOf(previousPv, previousPvLength);
+	}
+	
+	public void clearHeuristics() {
+		for (int[] killers : killerMoves) {
+			killers[0] = 0;
+			killers[1] = 0;
+		}
+		
+		for (int[] replies : counterHeuristic) {
+			Arrays.fill(replies, 0);
+		}
+		
+		for (int[][] colorHistory : historyHeuristic) {
+			for (int[] fromHistory : colorHistory) {
+				Arrays.fill(fromHistory, 0);
+			}
+		}
+		
+		for (int[] line : pvTable) {
+			Arrays.fill(line, 0);
+		}
+		
+		Arrays.fill(pvLength, 0);
+		previousPvLength = 0;
+	}
+}
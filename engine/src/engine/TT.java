@@ -0,0 +1,442 @@
+package engine;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class TT {
+	// Each entry is two longs next to each other: [key ^ data, data]
+	// A reader that sees the key of one write and the data of another fails the XOR check,
+	// so concurrent set/probe from the search threads never need a lock
+	//
+	// data: bits 0-31 move, 32-53 score (signed), 54-61 depth, 62-63 flag
+	// key:  bits 8-63 upper zobrist bits, 0-7 age (the low zobrist bits are implied by the bucket)
+	//
+	// Entries are grouped in buckets of 4 (64 bytes, one cache line), a hash may live in any slot of its bucket
+	private static final int BUCKET_ENTRIES = 4;
+	private static final int BUCKET_LONGS = BUCKET_ENTRIES * 2;
+	
+	public static final int DEFAULT_HASH_MB = 128;
+	public static final int MAX_HASH_MB = 8192; // 2^30 longs, the largest power of two a Java array can hold
+	public static final int MAX_OFF_HEAP_HASH_MB = 1 << 20; // Only bounded by the index staying a positive long
+	
+	private static long TT_SIZE; // Entries
+	private static long TT_BUCKETS;
+	
+	// Exactly one backend is in use, the other stays null
+	private static long[] TT_TABLE = null; // Heap, allocated by the first search so a GUI-only run never pays for it
+	private static ByteBuffer[] TT_CHUNKS = null; // Off-heap, direct buffers of CHUNK_LONGS each
+	private static boolean offHeap = false;
+	private static boolean alignLargePages = false;
+	
+	private static final int CHUNK_SHIFT = 27; // 2^27 longs = 1 GB, a ByteBuffer is capped at 2 GB
+	private static final long CHUNK_LONGS = 1L << CHUNK_SHIFT;
+	private static final int LARGE_PAGE_BYTES = 2 << 20; // Transparent huge pages only back 2 MB aligned ranges
+	static {
+		resize(DEFAULT_HASH_MB);
+	}
+	
+	// Opaque access keeps every long read/write atomic without the cost of volatile ordering
+	private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle OFF_HEAP_ENTRY = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	
+	private static final long KEY_MASK = ~0xFFL;
+	private static final int SCORE_BITS = 22;
+	
+	// probe packs a hit as (score << 32) | move so the search allocates nothing per node
+	public static final long NO_ENTRY = Long.MIN_VALUE; // Scores never reach Integer.MIN_VALUE, so no hit packs to this
+	
+	public static int probedScore(long probeResult) {
+		return (int)(probeResult >> 32);
+	}
+	
+	public static int probedMove(long probeResult) {
+		return (int)probeResult;
+	}
+	
+	private static long load(long index) {
+		if (offHeap) {
+			return (long)OFF_HEAP_ENTRY.getOpaque(TT_CHUNKS[(int)(index >>> CHUNK_SHIFT)], (int)(index & (CHUNK_LONGS - 1)) << 3);
+		}
+		
+		return (long)ENTRY.getOpaque(TT_TABLE, (int)index);
+	}
+	
+	private static void store(long index, long value) {
+		if (offHeap) {
+			OFF_HEAP_ENTRY.setOpaque(TT_CHUNKS[(int)(index >>> CHUNK_SHIFT)], (int)(index & (CHUNK_LONGS - 1)) << 3, value);
+		} else {
+			ENTRY.setOpaque(TT_TABLE, (int)index, value);
+		}
+	}
+	
+	private static boolean isAllocated() {
+		return offHeap ? TT_CHUNKS != null : TT_TABLE != null;
+	}
+	
+	private static void allocate() {
+		long totalLongs = TT_SIZE * 2;
+		
+		if (!offHeap) {
+			TT_TABLE = new long[(int)totalLongs];
+			return;
+		}
+		
+		// Fresh direct buffers are zeroed, so a new table needs no clear
+		int chunkCount = (int)((totalLongs + CHUNK_LONGS - 1) >>> CHUNK_SHIFT);
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+		
+		for (int i = 0; i < chunkCount; i++) {
+			int chunkBytes = (int)(Math.min(CHUNK_LONGS, totalLongs - ((long)i << CHUNK_SHIFT)) * Long.BYTES);
+			
+			if (alignLargePages) {
+				ByteBuffer raw = ByteBuffer.allocateDirect(chunkBytes + LARGE_PAGE_BYTES);
+				chunks[i] = raw.alignedSlice(LARGE_PAGE_BYTES).limit(chunkBytes).slice().order(ByteOrder.nativeOrder());
+			} else {
+				chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+			}
+		}
+		
+		TT_CHUNKS = chunks;
+	}
+	
+	// Allocates the table now instead of in the first search, where zeroing a large hash would eat its clock
+	public static void ensureAllocated() {
+		if (!isAllocated()) {
+			allocate();
+		}
+	}
+	
+	private static byte globalAge = 0;
+	public static void nextRootSearch() {
+		ensureAllocated();
+		
+		globalAge = (byte)((globalAge + 1) & 0xFF);
+	}
+	
+	// Rounds down to a power of two number of buckets, only call between searches
+	public static void resize(int megabytes) {
+		int clampedMb = Math.max(1, Math.min(offHeap ? MAX_OFF_HEAP_HASH_MB : MAX_HASH_MB, megabytes));
+		long bytes = (long)clampedMb << 20;
+		
+		TT_BUCKETS = Long.highestOneBit(bytes / (BUCKET_LONGS * Long.BYTES));
+		TT_SIZE = TT_BUCKETS * BUCKET_ENTRIES;
+		
+		// Drop the old table first so both are never alive at once
+		// Direct buffers are only released once the GC collects them, not right here
+		TT_TABLE = null;
+		TT_CHUNKS = null;
+		globalAge = 0;
+	}
+	
+	// Moves the table off the Java heap (direct buffers) so multi gigabyte hashes do not weigh on the GC
+	// alignLargePages aligns every chunk to 2 MB so the OS can back it with transparent huge pages,
+	// Java has no call to ask for them explicitly. Needs -XX:MaxDirectMemorySize above the hash size.
+	public static void setOffHeap(boolean useOffHeap, boolean useLargePages) {
+		int currentMb = sizeMb();
+		
+		offHeap = useOffHeap;
+		alignLargePages = useLargePages;
+		resize(currentMb);
+	}
+	
+	public static int sizeMb() {
+		return (int)((TT_SIZE * 2 * Long.BYTES) >> 20);
+	}
+	
+	// Splits the table between the search threads, a multi gigabyte table takes a while on one core
+	public static void clear() {
+		globalAge = 0;
+		if (!isAllocated()) return;
+		
+		long[] table = TT_TABLE;
+		ByteBuffer[] chunks = TT_CHUNKS;
+		long totalLongs = TT_SIZE * 2;
+		
+		int threadCount = Math.max(1, Math.min(Minimax.searchThreads, Runtime.getRuntime().availableProcessors()));
+		long chunk = totalLongs / threadCount;
+		Thread[] workers = new Thread[threadCount];
+		
+		for (int i = 0; i < threadCount; i++) {
+			long from = i * chunk;
+			long to = (i == threadCount - 1) ? totalLongs : from + chunk;
+			
+			workers[i] = new Thread(() -> {
+				if (table != null) {
+					Arrays.fill(table, (int)from, (int)to, 0L);
+				} else {
+					for (long index = from; index < to; index++) {
+						chunks[(int)(index >>> CHUNK_SHIFT)].putLong((int)(index & (CHUNK_LONGS - 1)) << 3, 0L);
+					}
+				}
+			}, "tt-clear-" + i);
+			workers[i].start();
+		}
+		
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	// SNAPSHOTS
+	// 64 byte header then the raw table, written in native byte order so the off-heap backend can map it as is
+	// header: int magic, int version, long zobrist fingerprint, long bucket count, byte age
+	private static final int SNAPSHOT_MAGIC = 0x4A435454; // "JCTT"
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final int SNAPSHOT_HEADER_BYTES = 64;
+	
+	// Written next to the file and renamed over it, never in place: an off-heap table loaded from this file
+	// still maps it, and truncating a mapped file pulls the pages out from under the table being written
+	public static void save(Path file) throws IOException {
+		if (!isAllocated()) allocate();
+		
+		long totalLongs = TT_SIZE * 2;
+		Path absolute = file.toAbsolutePath();
+		Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES).order(ByteOrder.nativeOrder());
+			header.putInt(SNAPSHOT_MAGIC);
+			header.putInt(SNAPSHOT_VERSION);
+			header.putLong(Position.zobristFingerprint());
+			header.putLong(TT_BUCKETS);
+			header.put(globalAge);
+			header.clear();
+			writeFully(channel, header);
+			
+			if (offHeap) {
+				for (ByteBuffer chunk : TT_CHUNKS) {
+					writeFully(channel, chunk.duplicate().clear());
+				}
+			} else {
+				ByteBuffer staging = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+				
+				for (long offset = 0; offset < totalLongs; offset += staging.capacity() / Long.BYTES) {
+					int count = (int)Math.min(staging.capacity() / Long.BYTES, totalLongs - offset);
+					
+					staging.clear();
+					staging.asLongBuffer().put(TT_TABLE, (int)offset, count);
+					staging.limit(count * Long.BYTES);
+					writeFully(channel, staging);
+				}
+			}
+			
+			channel.force(false);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		
+		// A crash mid-save leaves the old snapshot whole, the rename is all or nothing
+		Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	// Replaces the table with the snapshot, the table takes the snapshot's size
+	// Off-heap the file is mapped copy-on-write and used directly, on the heap it is copied in
+	public static void load(Path file) throws IOException {
+		// PRIVATE mappings need a channel opened for writing too, the file itself is never modified
+		StandardOpenOption[] openOptions = offHeap ?
+			new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE} :
+			new StandardOpenOption[] {StandardOpenOption.READ};
+		
+		try (FileChannel channel = FileChannel.open(file, openOptions)) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES).order(ByteOrder.nativeOrder());
+			
+			if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+				throw new IOException("Not a TT snapshot, or written with another version or byte order: " + file);
+			}
+			
+			if (header.getLong() != Position.zobristFingerprint()) {
+				throw new IOException("TT snapshot was built with different zobrist keys: " + file);
+			}
+			
+			long buckets = header.getLong();
+			byte age = header.get();
+			long totalLongs = buckets * BUCKET_LONGS;
+			
+			if (Long.bitCount(buckets) != 1 || channel.size() != SNAPSHOT_HEADER_BYTES + totalLongs * Long.BYTES) {
+				throw new IOException("TT snapshot is truncated or corrupt: " + file);
+			}
+			
+			if (!offHeap && totalLongs > (1L << 30)) {
+				throw new IOException("TT snapshot is larger than a heap table can hold, load it with the off-heap hash: " + file);
+			}
+			
+			TT_TABLE = null;
+			TT_CHUNKS = null;
+			TT_BUCKETS = buckets;
+			TT_SIZE = buckets * BUCKET_ENTRIES;
+			
+			int chunkCount = (int)((totalLongs + CHUNK_LONGS - 1) >>> CHUNK_SHIFT);
+			ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+			long[] table = offHeap ? null : new long[(int)totalLongs];
+			
+			for (int i = 0; i < chunkCount; i++) {
+				long chunkLongs = Math.min(CHUNK_LONGS, totalLongs - ((long)i << CHUNK_SHIFT));
+				long position = SNAPSHOT_HEADER_BYTES + ((long)i << CHUNK_SHIFT) * Long.BYTES;
+				
+				MappedByteBuffer mapped = channel.map(offHeap ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY, position, chunkLongs * Long.BYTES);
+				mapped.order(ByteOrder.nativeOrder());
+				
+				if (offHeap) {
+					chunks[i] = mapped;
+				} else {
+					mapped.asLongBuffer().get(table, (int)((long)i << CHUNK_SHIFT), (int)chunkLongs);
+				}
+			}
+			
+			TT_CHUNKS = offHeap ? chunks : null;
+			TT_TABLE = table;
+			globalAge = age;
+		}
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	private static long packData(int pvMove, int score, byte depth, byte flag) {
+		return (pvMove & 0xFFFFFFFFL)
+			| ((score & ((1L << SCORE_BITS) - 1)) << 32)
+			| ((depth & 0xFFL) << 54)
+			| ((flag & 0x3L) << 62);
+	}
+	
+	private static int dataMove(long data) {
+		return (int)data;
+	}
+	
+	private static int dataScore(long data) {
+		return (int)(data << (32 - SCORE_BITS) >> (64 - SCORE_BITS)); // Sign extends the 22 score bits
+	}
+	
+	private static byte dataDepth(long data) {
+		return (byte)(data >>> 54);
+	}
+	
+	private static byte dataFlag(long data) {
+		return (byte)(data >>> 62);
+	}
+	
+	// Per-mille of sampled entries written by the current search, same sampling as the UCI hashfull
+	public static int hashfull() {
+		if (!isAllocated()) return 0;
+		
+		int sampleBuckets = (int)Math.min(TT_BUCKETS, 1000 / BUCKET_ENTRIES);
+		int used = 0;
+		
+		for (int slot = 0; slot < sampleBuckets * BUCKET_LONGS; slot += 2) {
+			long rawKey = load(slot);
+			long data = load(slot + 1);
+			
+			if ((rawKey != 0 || data != 0) && (byte)(rawKey ^ data) == globalAge) {
+				used++;
+			}
+		}
+		
+		return used * 1000 / (sampleBuckets * BUCKET_ENTRIES);
+	}
+	
+	// How many searches ago the entry was written, wraps with the 8 bit age
+	private static int relativeAge(long key) {
+		return (globalAge - (int)key) & 0xFF;
+	}
+	
+	public static void set(long zobristHash, byte depth, int score, int pvMove, byte flag, boolean forceOverwrite) {
+		long bucket = (zobristHash & (TT_BUCKETS - 1)) * BUCKET_LONGS;
+		long index = -1;
+		int worstWorth = Integer.MAX_VALUE;
+		
+		for (long slot = bucket; slot < bucket + BUCKET_LONGS; slot += 2) {
+			long rawKey = load(slot);
+			long data = load(slot + 1);
+			long key = rawKey ^ data;
+			
+			if ((key & KEY_MASK) == (zobristHash & KEY_MASK)) { // Overwrite?
+				byte currentDepth = dataDepth(data);
+				
+				if (!forceOverwrite && depth < currentDepth && (byte)key == globalAge) {
+					return;
+				}
+				
+				index = slot;
+				break;
+			}
+			
+			// Replace the empty slot, otherwise the shallowest entry with older searches counting as shallower
+			int worth = (rawKey == 0 && data == 0) ? Integer.MIN_VALUE : dataDepth(data) - 8 * relativeAge(key);
+			if (worth < worstWorth) {
+				worstWorth = worth;
+				index = slot;
+			}
+		}
+		
+		long newData = packData(pvMove, score, depth, flag);
+		store(index, ((zobristHash & KEY_MASK) | (globalAge & 0xFFL)) ^ newData);
+		store(index + 1, newData);
+	}
+	
+	// Best move stored for this position at any depth, 0 if there is none, for move ordering only
+	public static int probeMove(long zobristHash) {
+		long bucket = (zobristHash & (TT_BUCKETS - 1)) * BUCKET_LONGS;
+		
+		for (long slot = bucket; slot < bucket + BUCKET_LONGS; slot += 2) {
+			long data = load(slot + 1);
+			long key = load(slot) ^ data;
+			
+			if ((key & KEY_MASK) != (zobristHash & KEY_MASK)) continue;
+			
+			int move = dataMove(data);
+			return move == -1 ? 0 : move;
+		}
+		
+		return 0;
+	}
+	
+	public static long probe(long zobristHash, int alpha, int beta, byte depth, int ply) {
+		long bucket = (zobristHash & (TT_BUCKETS - 1)) * BUCKET_LONGS;
+		
+		for (long slot = bucket; slot < bucket + BUCKET_LONGS; slot += 2) {
+			long data = load(slot + 1);
+			long key = load(slot) ^ data;
+			
+			if ((key & KEY_MASK) != (zobristHash & KEY_MASK)) continue;
+			
+			byte flagCutoff = dataFlag(data);
+			int pvMove = dataMove(data);
+			int score = dataScore(data);
+			byte saveDepth = dataDepth(data);
+			
+			if (score >= Minimax.MATE_SCORE) {
+				score = Minimax.MATE_SCORE + ply;
+			}
+			
+			if (saveDepth < depth) return NO_ENTRY;
+			
+			if (flagCutoff == Minimax.FLAG_LOWERBOUND && score >= beta) {
+				return ((long)score << 32) | (pvMove & 0xFFFFFFFFL);
+			} else if (flagCutoff == Minimax.FLAG_UPPERBOUND && score <= alpha) {
+				return ((long)score << 32) | (pvMove & 0xFFFFFFFFL);
+			} else if (flagCutoff == Minimax.FLAG_EXACT) {
+				return ((long)score << 32) | (pvMove & 0xFFFFFFFFL);
+			}
+		}
+		
+		return NO_ENTRY;
+	}
+}
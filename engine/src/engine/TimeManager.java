@@ -0,0 +1,80 @@
+package engine;
+
+// Decides how long a search may run
+// Soft limit: no new iteration is started past it, the next one would rarely finish anyway
+// Hard limit: the running iteration is aborted, negamax polls it every POLL_INTERVAL nodes
+public final class TimeManager {
+	static final int POLL_INTERVAL = 2048; // Power of two, nodes between two clock reads
+
+	private static final int DEFAULT_MOVES_TO_GO = 30; // Sudden death, assume this many moves are still to be played
+	private static final int MOVE_OVERHEAD_MS = 30; // Kept back for the GUI or the protocol to send the move
+
+	private volatile long startTime = System.nanoTime();
+	private final long softLimitMs;
+	private final long hardLimitMs;
+	private volatile boolean pondering = false; // Searching on the opponent's time, the limits only start with ponderHit
+
+	private TimeManager(long softLimitMs, long hardLimitMs) {
+		this.softLimitMs = Math.max(0, softLimitMs);
+		this.hardLimitMs = Math.max(this.softLimitMs, hardLimitMs);
+	}
+
+	// Exactly maxMs for the move, the old behaviour of getComputerMove
+	public static TimeManager fixed(long maxMs) {
+		return new TimeManager(maxMs, maxMs);
+	}
+
+	// Runs until stopped from outside
+	public static TimeManager infinite() {
+		return new TimeManager(Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	// Clock time left, increment per move and moves until the next time control (0 for sudden death)
+	// The increment only arrives after the move, so it can lengthen a search but never past a share of what is on the clock now
+	public static TimeManager forClock(long remainingMs, long incrementMs, int movesToGo) {
+		long usable = Math.max(1, remainingMs - MOVE_OVERHEAD_MS);
+		int moves = movesToGo > 0 ? Math.min(movesToGo, DEFAULT_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+		long cap = movesToGo == 1 ? usable * 3 / 4 : usable / 2; // Last move before the control, the rest is lost otherwise
+
+		long soft = Math.min(usable / moves + incrementMs * 3 / 4, cap);
+		long hard = Math.min(Math.min(soft * 4, usable / 3 + incrementMs), cap); // Room for one long iteration, never a big slice of the clock
+
+		return new TimeManager(soft, hard);
+	}
+
+	// The limits are ignored until ponderHit, call before the search starts
+	public TimeManager ponder() {
+		pondering = true;
+		return this;
+	}
+
+	// The opponent played the expected move, our clock starts now
+	public void ponderHit() {
+		startTime = System.nanoTime();
+		pondering = false;
+	}
+
+	public boolean isPondering() {
+		return pondering;
+	}
+
+	public long elapsedMs() {
+		return (System.nanoTime() - startTime) / 1_000_000;
+	}
+
+	public boolean softLimitReached() {
+		return !pondering && elapsedMs() >= softLimitMs;
+	}
+
+	public boolean hardLimitReached() {
+		return !pondering && elapsedMs() >= hardLimitMs;
+	}
+
+	public long softLimitMs() {
+		return softLimitMs;
+	}
+
+	public long hardLimitMs() {
+		return hardLimitMs;
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Search, move generation and the UCI front end, no AWT/Swing
+ */
+module JavaChess.engine {
+    exports engine;
+    exports uci;
+}
@@ -0,0 +1,369 @@
+package uci;
+
+import engine.EngineOptions;
+import engine.Minimax;
+import engine.Position;
+import engine.SearchContext;
+import engine.TT;
+import engine.TimeManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/*
+ UCI front end, speaks the protocol on stdin/stdout:
+  uci, isready, ucinewgame, setoption (Hash, Threads), position startpos|fen ... [moves ...],
+  go (depth, nodes, mate, movetime, wtime, btime, winc, binc, movestogo, infinite, ponder), ponderhit, stop, quit
+  everything else the engine prints goes to stderr so it can't be mistaken for protocol output
+ main() is the headless entry point, it never loads AWT/Swing and runs without java.desktop
+ */
+public class Uci {
+	private static final int MAX_THREADS = 256;
+	private static final int DEFAULT_MOVE_TIME_MS = 1000;
+
+	private static PrintStream protocolOut;
+	private static Position position;
+
+	private static SearchContext search; // Running search, null when idle
+	private static Thread searchThread;
+	private static TimeManager searchTime;
+	private static volatile boolean waitForStop; // infinite or ponder, bestmove may only be sent after stop/ponderhit
+
+	// Same engine options as main.Main: --threads, --hash, --hash-offheap, --large-pages, --hash-file, --seed
+	public static void main(String[] args) {
+		EngineOptions options = new EngineOptions();
+		for (String arg : args) {
+			if (arg.equals("--help") || arg.equals("-h")) {
+				System.out.println("Usage: java -p <modules> -m JavaChess.engine/uci.Uci [options]");
+				System.out.println("Options:");
+				EngineOptions.printUsage();
+				return;
+			}
+
+			if (!options.parse(arg)) System.err.println("Unknown arg: " + arg);
+		}
+
+		PrintStream protocolOut = System.out;
+		System.setOut(System.err); // stdout belongs to the protocol, the log goes to stderr
+
+		options.apply();
+		run(protocolOut);
+	}
+
+	// protocol is the real stdout, the caller has already pointed System.out at stderr
+	public static void run(PrintStream protocol) {
+		protocolOut = protocol;
+
+		position = newPosition(Position.START_FEN);
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) continue;
+
+				if (!handle(line)) break;
+			}
+		} catch (IOException e) {
+			System.err.println("UCI input error: " + e.getMessage());
+		}
+
+		stopSearch();
+	}
+
+	// false once the GUI asked us to quit
+	private static boolean handle(String line) {
+		String[] tokens = line.split("\\s+");
+
+		switch (tokens[0]) {
+		case "uci":
+			send("id name JavaChess");
+			send("id author JavaChess");
+			send("option name Hash type spin default " + TT.DEFAULT_HASH_MB + " min 1 max " + TT.MAX_HASH_MB);
+			send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+			send("option name Ponder type check default false");
+			send("uciok");
+			break;
+		case "isready":
+			if (searchThread == null || !searchThread.isAlive()) TT.ensureAllocated(); // GUIs wait here after setting the hash, not on go
+			send("readyok");
+			break;
+		case "ucinewgame":
+			stopSearch();
+			TT.clear();
+			position = newPosition(Position.START_FEN);
+			break;
+		case "setoption":
+			setOption(tokens);
+			break;
+		case "position":
+			stopSearch();
+			setPosition(tokens);
+			break;
+		case "go":
+			stopSearch();
+			go(tokens);
+			break;
+		case "ponderhit":
+			if (searchTime != null) searchTime.ponderHit();
+			releaseBestMove();
+			break;
+		case "stop":
+			stopSearch();
+			break;
+		case "quit":
+			return false;
+		default:
+			System.err.println("Unknown UCI command: " + line);
+		}
+
+		return true;
+	}
+
+	// setoption name <name> value <value>
+	private static void setOption(String[] tokens) {
+		String name = null;
+		String value = null;
+
+		for (int i = 1; i < tokens.length - 1; i++) {
+			if (tokens[i].equals("name")) name = tokens[i + 1];
+			if (tokens[i].equals("value")) value = tokens[i + 1];
+		}
+
+		if (name == null || value == null) return;
+
+		try {
+			if (name.equalsIgnoreCase("Hash")) {
+				stopSearch();
+				TT.resize(Math.max(1, Math.min(TT.MAX_HASH_MB, Integer.parseInt(value))));
+			} else if (name.equalsIgnoreCase("Threads")) {
+				Minimax.searchThreads = Math.max(1, Math.min(MAX_THREADS, Integer.parseInt(value)));
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Bad value for option " + name + ": " + value);
+		}
+	}
+
+	// position startpos|fen <fen fields> [moves <move> ...]
+	private static void setPosition(String[] tokens) {
+		int index = 1;
+		String fen = Position.START_FEN;
+
+		if (index < tokens.length && tokens[index].equals("startpos")) {
+			index++;
+		} else if (index < tokens.length && tokens[index].equals("fen")) {
+			StringBuilder fenText = new StringBuilder();
+			for (index++; index < tokens.length && !tokens[index].equals("moves"); index++) {
+				if (fenText.length() > 0) fenText.append(' ');
+				fenText.append(tokens[index]);
+			}
+
+			fen = fenText.toString();
+		}
+
+		try {
+			position = newPosition(fen);
+		} catch (Throwable e) {
+			System.err.println("Bad FEN, keeping the start position: " + fen);
+			position = newPosition(Position.START_FEN);
+			return;
+		}
+
+		if (index < tokens.length && tokens[index].equals("moves")) {
+			for (index++; index < tokens.length; index++) {
+				int move = parseMove(position, tokens[index]);
+				if (move == 0) {
+					System.err.println("Illegal move in position command: " + tokens[index]);
+					return;
+				}
+
+				position.makeMove(move, false);
+			}
+		}
+	}
+
+	private static void go(String[] tokens) {
+		int depth = -1;
+		long nodes = -1;
+		int mate = -1;
+		long moveTime = -1;
+		long[] time = {-1, -1};
+		long[] increment = {0, 0};
+		int movesToGo = 0;
+		boolean infinite = false;
+		boolean ponder = false;
+		boolean unknownLimit = false;
+
+		try {
+			for (int i = 1; i < tokens.length; i++) {
+				switch (tokens[i]) {
+				case "depth": depth = Integer.parseInt(tokens[++i]); break;
+				case "nodes": nodes = Long.parseLong(tokens[++i]); break;
+				case "mate": mate = Integer.parseInt(tokens[++i]); break;
+				case "movetime": moveTime = Long.parseLong(tokens[++i]); break;
+				case "wtime": time[0] = Long.parseLong(tokens[++i]); break;
+				case "btime": time[1] = Long.parseLong(tokens[++i]); break;
+				case "winc": increment[0] = Long.parseLong(tokens[++i]); break;
+				case "binc": increment[1] = Long.parseLong(tokens[++i]); break;
+				case "movestogo": movesToGo = Integer.parseInt(tokens[++i]); break;
+				case "infinite": infinite = true; break;
+				case "ponder": ponder = true; break;
+				default:
+					System.err.println("Ignoring go argument: " + tokens[i]);
+					unknownLimit = true;
+					break;
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Bad go command: " + String.join(" ", tokens));
+			return;
+		}
+
+		int side = position.sideToMove;
+		int minDepth = 1;
+		TimeManager timeManager;
+
+		if (infinite) {
+			timeManager = TimeManager.infinite();
+		} else if (moveTime >= 0) {
+			timeManager = TimeManager.fixed(moveTime);
+		} else if (time[side] >= 0) {
+			timeManager = TimeManager.forClock(time[side], increment[side], movesToGo);
+			minDepth = 0; // Even depth 1 answers to the clock, a cold JVM can spend a short clock on it alone
+		} else if (depth >= 0) {
+			timeManager = TimeManager.fixed(0); // Every iteration up to minDepth finishes, none starts after it
+			minDepth = depth;
+		} else if (mate > 0) {
+			timeManager = TimeManager.fixed(0);
+			minDepth = Math.min(2 * mate - 1, SearchContext.MAX_PLY / 2); // A mate in n moves is found within 2n - 1 plies
+		} else if (nodes >= 0) {
+			timeManager = TimeManager.infinite(); // The node limit below ends it
+		} else if (unknownLimit) {
+			timeManager = TimeManager.fixed(DEFAULT_MOVE_TIME_MS); // A limit we can't honour still needs a bestmove without waiting for stop
+		} else {
+			timeManager = TimeManager.infinite();
+			infinite = true;
+		}
+
+		if (ponder) timeManager.ponder();
+
+		SearchContext ctx = new SearchContext(position.clonePosition());
+		ctx.iterationListener = Uci::sendInfo;
+		if (nodes >= 0) ctx.nodeLimit = Math.max(1, nodes);
+
+		search = ctx;
+		searchTime = timeManager;
+		waitForStop = infinite || ponder;
+
+		int searchDepth = minDepth;
+		searchThread = new Thread(() -> {
+			int bestMove = Minimax.getComputerMove(ctx, searchDepth, timeManager);
+			int[] pv = ctx.getPrincipalVariation();
+
+			synchronized (Uci.class) {
+				while (waitForStop) {
+					try {
+						Uci.class.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+
+			if (bestMove == -1 || bestMove == 0) {
+				send("bestmove 0000");
+			} else if (pv.length > 1 && pv[0] == bestMove) {
+				send("bestmove " + Position.toLongAlgebraic(bestMove) + " ponder " + Position.toLongAlgebraic(pv[1]));
+			} else {
+				send("bestmove " + Position.toLongAlgebraic(bestMove));
+			}
+		}, "uci-search");
+		searchThread.setDaemon(true);
+		searchThread.start();
+	}
+
+	private static void sendInfo(int depth, int score, long nodes, long elapsedMs, int[] pv) {
+		StringBuilder info = new StringBuilder("info depth ").append(depth);
+
+		if (Math.abs(score) >= Minimax.MATE_SCORE - SearchContext.MAX_PLY) {
+			int plies = Minimax.MATE_SCORE - Math.abs(score);
+			info.append(" score mate ").append(score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2);
+		} else {
+			info.append(" score cp ").append(score);
+		}
+
+		info.append(" nodes ").append(nodes);
+		info.append(" nps ").append(nodes * 1000 / Math.max(1, elapsedMs));
+		info.append(" time ").append(elapsedMs);
+		info.append(" hashfull ").append(TT.hashfull());
+
+		if (pv.length > 0) {
+			info.append(" pv");
+			for (int move : pv) {
+				info.append(' ').append(Position.toLongAlgebraic(move));
+			}
+		}
+
+		send(info.toString());
+	}
+
+	// Ends the running search, its bestmove is sent before this returns
+	private static void stopSearch() {
+		if (searchThread == null) return;
+
+		search.stop();
+		releaseBestMove();
+
+		try {
+			searchThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		search = null;
+		searchThread = null;
+		searchTime = null;
+	}
+
+	private static void releaseBestMove() {
+		synchronized (Uci.class) {
+			waitForStop = false;
+			Uci.class.notifyAll();
+		}
+	}
+
+	// Long algebraic (e2e4, e7e8q) to the generator's move, 0 if it isn't legal here
+	static int parseMove(Position position, String text) {
+		byte side = position.sideToMove;
+
+		for (int move : position.getAllLegalMoves(side)) {
+			if (((move >>> 27) & 1) != 0 && text.length() == 5) {
+				int promotionKey = "nbrq".indexOf(Character.toLowerCase(text.charAt(4))) + 2;
+				if (promotionKey < 2) continue;
+
+				move |= (promotionKey + (side == 0 ? 0 : 6)) << 22;
+			}
+
+			if (Position.toLongAlgebraic(move).equals(text)) return move;
+		}
+
+		return 0;
+	}
+
+	private static Position newPosition(String fen) {
+		Position newPosition = new Position(fen);
+		newPosition.updateAttacksTEST((byte)0);
+		newPosition.updateAttacksTEST((byte)1);
+
+		return newPosition;
+	}
+
+	private static synchronized void send(String line) {
+		protocolOut.println(line);
+		protocolOut.flush();
+	}
+}
@@ -7,12 +7,19 @@ import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.Color;
 import java.awt.Component;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JFrame;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
@@ -23,6 +30,10 @@ import main.Main;
 import engine.EvaluateBoard;
 import engine.KeyToLegalMoves;
 import engine.Minimax;
+import engine.Ponder;
+import engine.SearchContext;
+import engine.TT;
+import engine.TimeManager;
 
 import javax.swing.JLayeredPane;
 
@@ -46,6 +57,25 @@ public class Board {
 	private static JPanel promotionComponent;
 	
 	private static ClickData activeDrag = null;
+	
+	static final int ENGINE_MIN_DEPTH = 2;
+	static final int ENGINE_TIME_MS = 500;
+	
+	public static volatile boolean ponderEnabled = false; // Keep searching on the human's time, on the reply we expect
+	private static Ponder ponder = null;
+	
+	// The engine thinks here so the EDT stays free, results come back through invokeLater
+	private static final ExecutorService engineExecutor = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "engine-search");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	// EDT only, published before the task is submitted so a cancel also stops a search that hasn't started yet
+	private static SearchContext activeSearch = null;
+	private static Ponder activePonder = null; // A ponder hit the engine thread is finishing
+	private static boolean engineThinking = false; // EDT only, the human can't move until the engine has answered
+	private static int searchGeneration = 0; // EDT only, bumped by cancelSearch so a stale result is dropped
 	private static ClickData getDataAtPos(int clickX, int clickY) {
 		int row = 7 - (clickY / tileSize);
 		int col = (clickX / tileSize);
@@ -138,10 +168,7 @@ public class Board {
 		waitingForPromotion |= (selectionKey << 22);
 		Main.globalPosition.makeMove(waitingForPromotion, false);
 		
-		int computerMove = Minimax.getComputerMove(2, 500);
-		
-		System.out.println(computerMove);			
-		Main.globalPosition.makeMove(computerMove, false);
+		playComputerMove(waitingForPromotion);
 		
 		renderAllPieces();
 		
@@ -150,6 +177,97 @@ public class Board {
 		waitingForPromotion = -1;
 	}
 	
+	// Answers humanMove on the engine thread, a ponder hit reuses the search that ran while the human was thinking
+	private static void playComputerMove(int humanMove) {
+		Ponder currentPonder = ponder;
+		ponder = null;
+		
+		SearchContext ctx = new SearchContext(Main.globalPosition.clonePosition()); // Cloned on the EDT, the only thread that moves the GUI position
+		int generation = searchGeneration;
+		engineThinking = true;
+		
+		boolean ponderHit = currentPonder != null && currentPonder.expectedMove() == humanMove;
+		if (ponderHit) activePonder = currentPonder;
+		else activeSearch = ctx;
+		
+		engineExecutor.execute(() -> {
+			int computerMove;
+			int[] pv;
+			
+			if (ponderHit) {
+				System.out.println("Ponder hit");
+				computerMove = currentPonder.hit();
+				pv = currentPonder.principalVariation();
+			} else {
+				if (currentPonder != null) currentPonder.miss();
+				
+				computerMove = Minimax.getComputerMove(ctx, ENGINE_MIN_DEPTH, ENGINE_TIME_MS);
+				pv = ctx.getPrincipalVariation();
+			}
+			
+			SwingUtilities.invokeLater(() -> computerMoveFound(generation, computerMove, pv));
+		});
+	}
+	
+	private static void computerMoveFound(int generation, int computerMove, int[] pv) {
+		if (generation != searchGeneration) return; // The board was reset while the engine was thinking
+		engineThinking = false;
+		activeSearch = null;
+		activePonder = null;
+		
+		if (computerMove == -1) { // Mate or stalemate, nothing to play
+			System.out.println("Game over");
+			return;
+		}
+		
+		System.out.println(computerMove);
+		Main.globalPosition.makeMove(computerMove, false);
+		renderAllPieces();
+		
+		if (ponderEnabled) {
+			int expectedReply = pv.length > 1 && pv[0] == computerMove ? pv[1] : TT.probeMove(Main.globalPosition.zobristHash);
+			ponder = Ponder.start(Main.globalPosition, expectedReply, ENGINE_MIN_DEPTH, TimeManager.fixed(ENGINE_TIME_MS));
+		}
+	}
+	
+	// Stops whatever the engine is doing and drops its result, call on the EDT
+	public static void cancelSearch() {
+		searchGeneration++;
+		engineThinking = false;
+		
+		if (activeSearch != null) {
+			activeSearch.stop(); // Also ends it at once if the engine thread hasn't picked it up yet
+			activeSearch = null;
+		}
+		
+		if (activePonder != null) {
+			activePonder.miss();
+			activePonder = null;
+		}
+		
+		if (ponder != null) {
+			ponder.miss();
+			ponder = null;
+		}
+	}
+	
+	public static void newGame() {
+		cancelSearch();
+		
+		if (waitingForPromotion != -1) {
+			layerPane.remove(promotionComponent);
+			waitingForPromotion = -1;
+		}
+		
+		Position position = new Position(Main.startFen);
+		position.updateAttacksTEST((byte)0);
+		position.updateAttacksTEST((byte)1);
+		Main.globalPosition = position;
+		
+		renderAllPieces();
+		layerPane.repaint();
+	}
+	
 	public static void init() {
 		Dimension boardSize = new Dimension(tileSize * 8, tileSize * 8);
 		layerPane.setPreferredSize(boardSize);
@@ -190,6 +308,14 @@ public class Board {
 		layerPane.add(previewPanel, Integer.valueOf(3));
 		board.add(layerPane);
 		
+		JMenuBar menuBar = new JMenuBar();
+		JMenu gameMenu = new JMenu("Game");
+		JMenuItem newGameItem = new JMenuItem("New game");
+		newGameItem.addActionListener(e -> newGame());
+		gameMenu.add(newGameItem);
+		menuBar.add(gameMenu);
+		board.setJMenuBar(menuBar);
+		
 		board.pack();
 		board.setVisible(true);
 		
@@ -199,6 +325,13 @@ public class Board {
 		tilePanel.setOpaque(false);
 		
 		board.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		board.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				cancelSearch();
+				engineExecutor.shutdownNow();
+			}
+		});
 		layerPane.addMouseListener(new MouseListener() {
 			
 			@Override
@@ -209,6 +342,7 @@ public class Board {
 				
 				ClickData data = getDataAtPos(clickX, clickY);
 				if (waitingForPromotion != -1) return;
+				if (engineThinking) return;
 				if (data == null) return;
 				if (data.colorKey != Main.globalPosition.sideToMove) return;
 				if (data.pieceName == null) return;
@@ -246,13 +380,9 @@ public class Board {
 								activeComponent.setBounds(col * tileSize, (7 - row) * tileSize, tileSize, tileSize);
 								
 								foundMatch = true;
-								Main.globalPosition.makeMove(move, false);		
-													
+								Main.globalPosition.makeMove(move, false);
 								
-								int computerMove = Minimax.getComputerMove(2, 500);
-								 
-								System.out.println(computerMove);
-								Main.globalPosition.makeMove(computerMove, false);
+								playComputerMove(move);
 								
 								renderAllPieces();
 								
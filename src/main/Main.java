@@ -1,12 +1,15 @@
 package main;
 
 import engine.Position;
-import engine.LegalityCheck;
+import engine.EngineOptions;
 import engine.MoveGen;
 import engine.PrecompMoves;
-import engine.MagicBitboards;
 import engine.Minimax;
+import engine.ParallelPerft;
+import engine.SearchContext;
+import engine.TT;
 
+import java.io.PrintStream;
 import java.util.Arrays;
 
 import debug.DebugRender;
@@ -14,18 +17,21 @@ import gui.Board;
 
 import javax.swing.SwingUtilities;
 
+import uci.Uci;
+
 /*
  improved Main launcher:
-  basic CLI options (--fen, --autoplay, --depth, --timeMs, --moves)
+  basic CLI options (--fen, --autoplay, --depth, --timeMs, --moves, --threads, --hash, --hash-offheap, --large-pages, --hash-file, --seed, --no-pvs, --no-aspiration, --ponder, --uci, --bench, --bench-movegen, --perft)
   initialization timing/logging
   autoplay runs in a background thread to keep GUI responsive
+  headless servers run uci.Uci from the JavaChess.engine module directly, without this class or java.desktop
   basic error handling
  */
 public class Main {
     public static volatile Position globalPosition;
+    public static volatile String startFen = Position.START_FEN; // Position the GUI goes back to on a new game
 
     public static void main(String[] args) {
-        System.out.println("=== JavaChess starting ===");
         final long t0 = System.nanoTime();
 
         LaunchOptions opts = LaunchOptions.fromArgs(args);
@@ -34,15 +40,17 @@ public class Main {
             return;
         }
 
+        PrintStream protocolOut = System.out;
+        if (opts.uci) {
+            System.setOut(System.err); // stdout belongs to the protocol, the log goes to stderr
+        }
+
+        System.out.println("=== JavaChess starting ===");
+
         try {
             System.out.println("Initializing engine subsystems...");
             long tInitStart = System.nanoTime();
-            LegalityCheck.init();
-            MagicBitboards.initBishopLookups();
-            MagicBitboards.initRookLookups();
-            MagicBitboards.initPrecomputedLineBB();
-            MagicBitboards.initMagicMasks();
-            Position.initGlobalZobristKeys(); // Zobrist Keys are global across all threads
+            opts.engine.apply(); // Tables, threads, hash and its snapshot
             long tInit = System.nanoTime() - tInitStart;
             System.out.printf("Initialization complete (%.2f ms)%n", tInit / 1_000_000.0);
         } catch (Throwable e) {
@@ -51,17 +59,50 @@ public class Main {
             return;
         }
 
-        final String startFen = opts.fen != null ? opts.fen :
-                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq";
+        startFen = opts.fen != null ? opts.fen : Position.START_FEN;
         Position pos;
         try {
             pos = new Position(startFen);
         } catch (Throwable e) {
             System.err.println("Failed to create Position from FEN. Using default start position.");
-            pos = new Position("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq");
+            startFen = Position.START_FEN;
+            pos = new Position(Position.START_FEN);
         }
         globalPosition = pos;
+        Minimax.usePVS = opts.pvs;
+        Minimax.useAspiration = opts.aspiration;
+        System.out.printf("Hash: %d MB%s, Threads: %d%n", TT.sizeMb(), opts.engine.offHeapHash ? " (off-heap)" : "", opts.engine.threads);
+
+        long tAttackStart = System.nanoTime();
+        try {
+            globalPosition.updateAttacksTEST((byte)0);
+            globalPosition.updateAttacksTEST((byte)1);
+        } catch (Throwable e) {
+            System.err.println("Warning: updateAttacksTEST error: " + e.getMessage());
+        }
+        System.out.printf("Attack maps updated (%.2f ms)%n", (System.nanoTime() - tAttackStart) / 1_000_000.0);
+
+        if (opts.bench) {
+            runThreadBenchmark(opts);
+            return;
+        }
 
+        if (opts.perftDepth > 0) {
+            runPerftBenchmark(opts);
+            return;
+        }
+
+        if (opts.benchMovegen) {
+            runMovegenBenchmark();
+            return;
+        }
+
+        if (opts.uci) {
+            Uci.run(protocolOut);
+            return;
+        }
+
+        Board.ponderEnabled = opts.ponder; // First touch of Board, it creates the frame, so only on the GUI path
         try {
             SwingUtilities.invokeAndWait(() -> {
                 Board.init();
@@ -73,15 +114,6 @@ public class Main {
             Board.renderAllPieces();
         }
 
-        long tAttackStart = System.nanoTime();
-        try {
-            globalPosition.updateAttacksTEST((byte)0);
-            globalPosition.updateAttacksTEST((byte)1);
-        } catch (Throwable e) {
-            System.err.println("Warning: updateAttacksTEST error: " + e.getMessage());
-        }
-        System.out.printf("Attack maps updated (%.2f ms)%n", (System.nanoTime() - tAttackStart) / 1_000_000.0);
-
         System.out.printf("Startup total: %.2f ms%n", (System.nanoTime() - t0) / 1_000_000.0);
         if (opts.autoplay) {
             System.out.printf("Starting autoplay: depth=%d, timeMs=%d, moves=%d%n",
@@ -96,7 +128,7 @@ public class Main {
         int moves = 0;
         while (opts.maxMoves <= 0 || moves < opts.maxMoves) {
             try {
-                int move = Minimax.getComputerMove(opts.depth, opts.timeMs);
+                int move = Minimax.getComputerMove(new SearchContext(globalPosition.clonePosition()), opts.depth, opts.timeMs);
 
                 if (move == 0) {
                     System.out.println("Engine returned move 0 — stopping autoplay.");
@@ -136,18 +168,143 @@ public class Main {
         System.out.println("Autoplay finished.");
     }
 
+    // Move generation + make/unmake throughput, the counts double as a correctness check
+    // Every root move is counted on its own clone across --threads workers, divide lists them one by one
+    private static void runPerftBenchmark(LaunchOptions opts) {
+        ParallelPerft perft = ParallelPerft.run(globalPosition, opts.perftDepth, opts.engine.threads);
+
+        for (int i = 0; i < perft.rootMoves.length; i++) {
+            System.out.printf("%s: %d%n", Position.toLongAlgebraic(perft.rootMoves[i]), perft.divide[i][0]);
+        }
+
+        long[] counts = perft.total;
+        System.out.printf("Perft(%d): nodes=%d captures=%d enPassants=%d castles=%d promotions=%d checks=%d%n",
+                opts.perftDepth, counts[0], counts[1], counts[2], counts[3], counts[4], counts[5]);
+        System.out.printf("Perft(%d): %.1f ms, %d nodes/sec, %d threads%n", opts.perftDepth, perft.elapsedNanos / 1_000_000.0, perft.nodesPerSecond(), Math.max(1, opts.engine.threads));
+    }
+
+    // Raw movegen and eval throughput on a few fixed positions, attack maps are warm so only the generators are timed
+    private static final String[] BENCH_FENS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq",
+            "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w -",
+    };
+
+    private static void runMovegenBenchmark() {
+        final int iterations = 1_000_000;
+        int[] buffer = new int[Position.MAX_MOVES];
+
+        for (String fen : BENCH_FENS) {
+            Position position = new Position(fen);
+            position.updateAttacksTEST((byte)0);
+            position.updateAttacksTEST((byte)1);
+            byte side = position.sideToMove;
+
+            long sink = 0;
+            for (int i = 0; i < iterations; i++) { // Warmup so the JIT has compiled everything before timing
+                sink += position.getAllLegalMoves(side, buffer) + position.getCapturesChecksPromotions(side, buffer) + position.getEval(side);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += position.getAllLegalMoves(side, buffer);
+            long movegenNs = Math.max(1, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += position.getCapturesChecksPromotions(side, buffer);
+            long capturesNs = Math.max(1, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += position.getEval(side);
+            long evalNs = Math.max(1, System.nanoTime() - start);
+
+            System.out.printf("%s%n  movegen=%d/s captures=%d/s eval=%d/s (%d)%n", fen,
+                    iterations * 1_000_000_000L / movegenNs, iterations * 1_000_000_000L / capturesNs,
+                    iterations * 1_000_000_000L / evalNs, sink & 1);
+        }
+    }
+
+    // Same fixed-depth search at 1, 2, 4 ... threads, to see how Lazy SMP scales on this machine
+    private static final int BENCH_WARMUP_MIN_RUNS = 3;
+    private static final int BENCH_WARMUP_MAX_RUNS = 12;
+    private static final int BENCH_REPEATS = 3;
+
+    private static void runThreadBenchmark(LaunchOptions opts) {
+        System.out.printf("Benchmark: depth=%d, up to %d threads%n", opts.depth, opts.engine.threads);
+
+        // Unmeasured 1 thread runs until the JIT has settled, otherwise the baseline is slow and every later run looks faster
+        long previousNps = 0;
+        for (int run = 0; run < BENCH_WARMUP_MAX_RUNS; run++) {
+            long[] result = benchmarkSearch(opts.depth, 1);
+            long nps = result[0] * 1_000_000_000L / result[1];
+
+            if (run >= BENCH_WARMUP_MIN_RUNS && Math.abs(nps - previousNps) * 20 < previousNps) break; // Within 5% of the run before
+            previousNps = nps;
+        }
+
+        long baseNps = 0;
+        int threads = 1;
+        while (true) {
+            // Best of a few runs, a single one is too noisy to size hardware with
+            long bestNodes = 0;
+            long bestElapsed = 0;
+            long nps = 0;
+            for (int run = 0; run < BENCH_REPEATS; run++) {
+                long[] result = benchmarkSearch(opts.depth, threads);
+                long runNps = result[0] * 1_000_000_000L / result[1];
+
+                if (runNps > nps) {
+                    nps = runNps;
+                    bestNodes = result[0];
+                    bestElapsed = result[1];
+                }
+            }
+
+            if (threads == 1) baseNps = nps;
+
+            System.out.printf("threads=%d nodes=%d time=%.1f ms nps=%d scaling=%.2fx%n",
+                    threads, bestNodes, bestElapsed / 1_000_000.0, nps, baseNps == 0 ? 0.0 : (double) nps / baseNps);
+
+            if (threads == opts.engine.threads) break;
+            threads = Math.min(threads * 2, opts.engine.threads);
+        }
+
+        Minimax.searchThreads = opts.engine.threads;
+    }
+
+    // {nodes, elapsed ns} of one cold-TT search
+    private static long[] benchmarkSearch(int depth, int threads) {
+        Minimax.searchThreads = threads;
+        TT.clear(); // Every run starts cold, otherwise later runs just replay the TT
+        SearchContext ctx = new SearchContext(globalPosition.clonePosition());
+
+        long start = System.nanoTime();
+        Minimax.getComputerMove(ctx, depth, 0);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        return new long[] {ctx.totalNodes, elapsed};
+    }
+
     private static class LaunchOptions {
         String fen = null;
         boolean autoplay = false;
         int depth = 1;
         int timeMs = 500;
         int maxMoves = 0; 
+        EngineOptions engine = new EngineOptions(); // --threads, --hash, --hash-offheap, --large-pages, --hash-file, --seed
+        boolean pvs = true;
+        boolean aspiration = true;
+        boolean ponder = false;
+        boolean uci = false;
+        boolean bench = false;
+        boolean benchMovegen = false;
+        int perftDepth = 0;
         boolean showHelp = false;
 
         static LaunchOptions fromArgs(String[] args) {
             LaunchOptions o = new LaunchOptions();
             for (String a : args) {
-                if (a == null) continue;
+                if (a == null || o.engine.parse(a)) continue;
                 if (a.equals("--help") || a.equals("-h")) {
                     o.showHelp = true;
                 } else if (a.startsWith("--fen=")) {
@@ -160,6 +317,20 @@ public class Main {
                     try { o.timeMs = Integer.parseInt(a.substring("--timeMs=".length())); } catch (NumberFormatException ignored) {}
                 } else if (a.startsWith("--moves=")) {
                     try { o.maxMoves = Integer.parseInt(a.substring("--moves=".length())); } catch (NumberFormatException ignored) {}
+                } else if (a.equals("--no-pvs")) {
+                    o.pvs = false;
+                } else if (a.equals("--no-aspiration")) {
+                    o.aspiration = false;
+                } else if (a.equals("--ponder")) {
+                    o.ponder = true;
+                } else if (a.equals("--uci")) {
+                    o.uci = true;
+                } else if (a.equals("--bench")) {
+                    o.bench = true;
+                } else if (a.equals("--bench-movegen")) {
+                    o.benchMovegen = true;
+                } else if (a.startsWith("--perft=")) {
+                    try { o.perftDepth = Integer.parseInt(a.substring("--perft=".length())); } catch (NumberFormatException ignored) {}
                 } else {
                     System.out.println("Unknown arg: " + a);
                 }
@@ -175,6 +346,14 @@ public class Main {
             System.out.println("  --depth=<n>         AI search depth (default 1)");
             System.out.println("  --timeMs=<ms>       Time budget passed to AI (default 500)");
             System.out.println("  --moves=<n>         Stop after n moves (0 = unlimited)");
+            EngineOptions.printUsage();
+            System.out.println("  --no-pvs            Search every move with the full window instead of PVS null windows");
+            System.out.println("  --no-aspiration     Start every iteration with the full window");
+            System.out.println("  --ponder            GUI engine keeps thinking on your time, on the reply it expects");
+            System.out.println("  --uci               Speak UCI on stdin/stdout instead of opening the board");
+            System.out.println("  --bench             Report nodes/sec from 1 to --threads threads at --depth, no GUI");
+            System.out.println("  --bench-movegen     Report movegen, capture generation and eval calls/sec on fixed positions, no GUI");
+            System.out.println("  --perft=<n>         Run perft to depth n from --fen on --threads workers, prints divide and nodes/sec, no GUI");
             System.out.println("  --help, -h          Show this help");
         }
     }
@@ -6,7 +6,7 @@
  */
 module JavaChess {
     requires java.desktop;
-    exports engine;
+    requires transitive JavaChess.engine; // Search and UCI, usable on their own without java.desktop
     exports gui;
     exports debug;
 }